@@ -11,7 +11,6 @@ import org.springframework.stereotype.Component;
 import com.securefromscratch.busybee.controllers.TaskOut;
 import com.securefromscratch.busybee.storage.TasksStorage;
 import com.securefromscratch.busybee.storage.Task;
-import com.securefromscratch.busybee.storage.TaskComment;
 import com.securefromscratch.busybee.storage.TaskNotFoundException;
 
 @Component("tasksAuthorization")
@@ -59,23 +58,15 @@ public class TasksAuthorization {
                 || java.util.Arrays.stream(t.responsibilityOf()).anyMatch((String responsible) -> username.equals(responsible));
     }
 
-    private static boolean userAllowedToViewTask(Task t, String username) {
+    public static boolean userAllowedToViewTask(Task t, String username) {
         return t.createdBy().equals(username)
                 || java.util.Arrays.stream(t.responsibilityOf()).anyMatch((String responsible) -> username.equals(responsible));
     }
 
+    // Reverse index lookup (stored filename -> tasks) followed by the usual visibility check
     public boolean imgIsInOwnedOrAssignedTask(String imgName, String currentUser) {
-        for (Task t : m_tasks.getAll()) {
-            if (!userAllowedToViewTask(t, currentUser)) {
-                continue;
-            }
-            for (TaskComment c : t.comments()) {
-                if (c.image().isPresent() && c.image().get().equals(imgName)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return m_tasks.findWithImage(imgName).stream()
+                .anyMatch(t -> userAllowedToViewTask(t, currentUser));
     }
 
     public boolean imageIsInOwnedOrAssignedTask(String imgName, String currentUser) {
@@ -83,17 +74,8 @@ public class TasksAuthorization {
     }
 
     public boolean attachmentIsInOwnedOrAssignedTask(String filename, String currentUser) {
-        for (Task t : m_tasks.getAll()) {
-            if (!userAllowedToViewTask(t, currentUser)) {
-                continue;
-            }
-            for (TaskComment c : t.comments()) {
-                if (c.attachment().isPresent() && c.attachment().get().equals(filename)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return m_tasks.findWithAttachment(filename).stream()
+                .anyMatch(t -> userAllowedToViewTask(t, currentUser));
     }
 
     public boolean userAllowedToComment(UUID taskid, String username) {
@@ -13,18 +13,26 @@ class BoxedFileSystem extends FileSystem {
     private final @NotNull BoxedFileSystemProvider m_provider;
     private final @NotNull Path m_sandboxAbsolute;
     private final SandboxJailbreak m_jailbreakPolicy;
+    private final RealPathCache m_realPathCache;
+    private final PathSandbox m_pathSandbox;
     //private final @NotNull AtomicLong m_refCount = new AtomicLong(1);
 
     public BoxedFileSystem(BoxedFileSystemProvider provider, Path sandboxAbsolute, SandboxJailbreak jailbreakPolicy) {
         this.m_provider = provider;
         this.m_sandboxAbsolute = sandboxAbsolute;
         this.m_jailbreakPolicy = jailbreakPolicy;
+        this.m_realPathCache = (jailbreakPolicy == SandboxJailbreak.DISALLOW) ? new RealPathCache(sandboxAbsolute) : null;
+        this.m_pathSandbox = new PathSandbox(this);
     }
 
     // intentionally package private
     Path getSandboxAbsolutePath() { return m_sandboxAbsolute; }
     // intentionally package private
     SandboxJailbreak getJailbreakPolicy() { return m_jailbreakPolicy; }
+    // intentionally package private; only set for SandboxJailbreak.DISALLOW
+    RealPathCache getRealPathCache() { return m_realPathCache; }
+    // intentionally package private; one PathSandbox per file system, handed out by every boxroot() call
+    PathSandbox getPathSandbox() { return m_pathSandbox; }
 
     @Override
     public FileSystemProvider provider() {
@@ -1,28 +1,29 @@
 package com.securefromscratch.busybee.boxedpath;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 // NOTE: public access required for instantiation by Java's service loader
 public class BoxedFileSystemProvider extends FileSystemProvider {
-    private final Map<SandboxJailbreak, Map<Path, BoxedFileSystem>> m_filesystems = initFilesystemsContainer();
-
-    private static Map<SandboxJailbreak, Map<Path, BoxedFileSystem>> initFilesystemsContainer() {
-        Map<SandboxJailbreak, Map<Path, BoxedFileSystem>> retval = new HashMap<SandboxJailbreak, Map<Path, BoxedFileSystem>>(2);
-        retval.put(SandboxJailbreak.DISALLOW, new HashMap<>(10));
-        retval.put(SandboxJailbreak.UNCHECKED_SYMLINKS, new HashMap<>(2));
-        return retval;
-    }
+    // The outer map is fixed at construction; the per-policy maps are looked up and filled from many request
+    // threads at once, so creation goes through computeIfAbsent and never builds a file system twice.
+    private final Map<SandboxJailbreak, Map<Path, BoxedFileSystem>> m_filesystems = Map.of(
+            SandboxJailbreak.DISALLOW, new ConcurrentHashMap<>(16),
+            SandboxJailbreak.UNCHECKED_SYMLINKS, new ConcurrentHashMap<>(2));
 
     @Override
     public String getScheme() {
@@ -33,12 +34,21 @@ public class BoxedFileSystemProvider extends FileSystemProvider {
     public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
         Path sandboxAbsolutePath = extractSandboxPath(uri);
         SandboxJailbreak jailbreakPolicy = extractJailbreakPolicy(uri);
-        if (m_filesystems.get(jailbreakPolicy).containsKey(sandboxAbsolutePath)) {
+        boolean[] created = new boolean[1];
+        BoxedFileSystem fs = m_filesystems.get(jailbreakPolicy).computeIfAbsent(sandboxAbsolutePath, p -> {
+            created[0] = true;
+            return new BoxedFileSystem(this, p, jailbreakPolicy);
+        });
+        if (!created[0]) {
             throw new FileSystemAlreadyExistsException();
         }
-        BoxedFileSystem newFs = new BoxedFileSystem(this, sandboxAbsolutePath, jailbreakPolicy);
-        m_filesystems.get(jailbreakPolicy).put(sandboxAbsolutePath, newFs);
-        return newFs;
+        return fs;
+    }
+
+    // Existing file system for the sandbox, or a new one; safe to call concurrently (used by PathSandbox.boxroot)
+    BoxedFileSystem getOrCreateFileSystem(SandboxJailbreak jailbreakPolicy, Path sandboxAbsolutePath) {
+        return m_filesystems.get(jailbreakPolicy).computeIfAbsent(sandboxAbsolutePath,
+                p -> new BoxedFileSystem(this, p, jailbreakPolicy));
     }
 
     private static Path extractSandboxPath(URI uri) {
@@ -82,6 +92,32 @@ public class BoxedFileSystemProvider extends FileSystemProvider {
         return targetPath.getFileSystem().provider().newByteChannel(targetPath, set, fileAttributes);
     }
 
+    // The channels and streams below are opened on the already validated real path, exactly like newByteChannel,
+    // so callers get the default provider's FileChannel (positional reads, transferTo, map) and async channel.
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> set, FileAttribute<?>... fileAttributes) throws IOException {
+        Path targetPath = ((BoxedPath)path).getUnprotectedPath();
+        return targetPath.getFileSystem().provider().newFileChannel(targetPath, set, fileAttributes);
+    }
+
+    @Override
+    public AsynchronousFileChannel newAsynchronousFileChannel(Path path, Set<? extends OpenOption> set, ExecutorService executorService, FileAttribute<?>... fileAttributes) throws IOException {
+        Path targetPath = ((BoxedPath)path).getUnprotectedPath();
+        return targetPath.getFileSystem().provider().newAsynchronousFileChannel(targetPath, set, executorService, fileAttributes);
+    }
+
+    @Override
+    public InputStream newInputStream(Path path, OpenOption... openOptions) throws IOException {
+        Path targetPath = ((BoxedPath)path).getUnprotectedPath();
+        return targetPath.getFileSystem().provider().newInputStream(targetPath, openOptions);
+    }
+
+    @Override
+    public OutputStream newOutputStream(Path path, OpenOption... openOptions) throws IOException {
+        Path targetPath = ((BoxedPath)path).getUnprotectedPath();
+        return targetPath.getFileSystem().provider().newOutputStream(targetPath, openOptions);
+    }
+
     @Override
     public DirectoryStream<Path> newDirectoryStream(Path path, DirectoryStream.Filter<? super Path> filter) throws IOException {
         Path targetPath = ((BoxedPath)path).getUnprotectedPath();
@@ -103,13 +139,28 @@ public class BoxedFileSystemProvider extends FileSystemProvider {
     @Override
     public void copy(Path path, Path path1, CopyOption... copyOptions) throws IOException {
         Path targetPath = ((BoxedPath)path).getUnprotectedPath();
-        targetPath.getFileSystem().provider().copy(targetPath, path1, copyOptions);
+        targetPath.getFileSystem().provider().copy(targetPath, unwrapDestination(path1), copyOptions);
     }
 
     @Override
     public void move(Path path, Path path1, CopyOption... copyOptions) throws IOException {
         Path targetPath = ((BoxedPath)path).getUnprotectedPath();
-        targetPath.getFileSystem().provider().move(targetPath, path1, copyOptions);
+        targetPath.getFileSystem().provider().move(targetPath, unwrapDestination(path1), copyOptions);
+    }
+
+    // Both ends of a hard link must be sandboxed paths; a link is just another name for the same content
+    @Override
+    public void createLink(Path link, Path existing) throws IOException {
+        if (!(existing instanceof BoxedPath)) {
+            throw new SecurityException("Link target " + existing + " is not a sandboxed path");
+        }
+        Path linkPath = ((BoxedPath)link).getUnprotectedPath();
+        linkPath.getFileSystem().provider().createLink(linkPath, ((BoxedPath)existing).getUnprotectedPath());
+    }
+
+    // the underlying provider only understands its own paths
+    private static Path unwrapDestination(Path destination) {
+        return (destination instanceof BoxedPath boxed) ? boxed.getUnprotectedPath() : destination;
     }
 
     @Override
@@ -162,16 +213,7 @@ public class BoxedFileSystemProvider extends FileSystemProvider {
 
     void removeRegisteredFileSystem(BoxedFileSystem fs) {
         SandboxJailbreak jailbreakPolicy = fs.getJailbreakPolicy();
-        Map<Path, BoxedFileSystem> filesystems = m_filesystems.get(jailbreakPolicy);
-        Iterator<Map.Entry<Path, BoxedFileSystem>> it = filesystems.entrySet().iterator();
-        int numRemoved = 0;
-        while (it.hasNext()) {
-            Map.Entry<Path, BoxedFileSystem> entry = it.next();
-            if (entry == fs) {
-                it.remove();
-                ++numRemoved;
-            }
-        }
-        assert(numRemoved == 1);
+        boolean removed = m_filesystems.get(jailbreakPolicy).remove(fs.getSandboxAbsolutePath(), fs);
+        assert(removed);
     }
 }
@@ -55,7 +55,7 @@ public class BoxedPath implements Path {
     // Constructor validates that the path is within the sandbox
     protected BoxedPath(@NotNull Path path, @NotNull BoxedFileSystem sandboxFs) {
         this.m_sandboxFs = sandboxFs; // sandboxRoot.toAbsolutePath().normalize();
-        validateWithinSandbox(sandboxFs.getJailbreakPolicy(), path, sandboxFs.getSandboxAbsolutePath());
+        validateWithinSandbox(sandboxFs, path);
         this.m_path = path;
     }
 
@@ -64,34 +64,25 @@ public class BoxedPath implements Path {
     }
 
     // Validates if the path is within the sandbox
-    private static void validateWithinSandbox(SandboxJailbreak jailbreakPolicy, @NotNull Path candidatePath, @NotNull Path sandboxAbsolute) {
+    private static void validateWithinSandbox(@NotNull BoxedFileSystem sandboxFs, @NotNull Path candidatePath) {
+        Path sandboxAbsolute = sandboxFs.getSandboxAbsolutePath();
         Path absolutePath = candidatePath.toAbsolutePath().normalize();
         if (!absolutePath.startsWith(sandboxAbsolute)) {
             throw new SecurityException("Path " + candidatePath + " is outside the sandbox " + sandboxAbsolute);
         }
 
-        if (jailbreakPolicy == SandboxJailbreak.DISALLOW) {
-            try {
-                // traverse name parts and turn into real names
-                Path realSandbox = sandboxAbsolute.toRealPath();
-
-                Path relativePart = sandboxAbsolute.relativize(absolutePath);
-                Path realPathPrefix = realSandbox;
-                try {
-                    for (int i = 0 ; i < relativePart.getNameCount() ; ++i) {
-                        realPathPrefix = realPathPrefix.resolve(relativePart.getName(i)).toRealPath();
-                    }
-                }
-                catch (IOException ex) {
-                    // adding path part results in path that doesn't exist on file system, so all path parts from here on are not symlinks
-                }
-                // ensure path part that DOES exist on file system is within sandbox
-                if (!realPathPrefix.startsWith(realSandbox)) {
-                    throw new SecurityException("Path " + candidatePath + " is outside the sandbox " + sandboxAbsolute + " [after resolving symlinks]");
-                }
+        if (sandboxFs.getJailbreakPolicy() == SandboxJailbreak.DISALLOW) {
+            // even sandbox path doesn't exist on file system, so it couldn't have a symlink within it... ==> All ok!
+            RealPathCache realPaths = sandboxFs.getRealPathCache();
+            Optional<Path> realSandbox = realPaths.realSandbox();
+            if (realSandbox.isEmpty()) {
+                return;
             }
-            catch (IOException ex) {
-                // even sandbox path doesn't exist on file system, so it couldn't have a symlink within it... ==> All ok!
+            // traverse name parts and turn into real names (cached per prefix until the file system changes)
+            Path realPathPrefix = realPaths.realPrefixOf(absolutePath, realSandbox.get());
+            // ensure path part that DOES exist on file system is within sandbox
+            if (!realPathPrefix.startsWith(realSandbox.get())) {
+                throw new SecurityException("Path " + candidatePath + " is outside the sandbox " + sandboxAbsolute + " [after resolving symlinks]");
             }
         }
     }
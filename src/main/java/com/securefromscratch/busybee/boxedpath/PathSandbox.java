@@ -1,48 +1,46 @@
 package com.securefromscratch.busybee.boxedpath;
 
 import javax.validation.constraints.NotNull;
-import java.io.IOException;
-import java.nio.file.FileSystemAlreadyExistsException;
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.nio.file.spi.FileSystemProvider;
 
+// boxroot() is idempotent and safe to call from any thread: the same root and policy always give back the same
+// PathSandbox (and file system), found with one concurrent map lookup after the first call.
 public class PathSandbox {
+    private static final BoxedFileSystemProvider PROVIDER = installedProvider();
+
     public static PathSandbox boxroot(@NotNull Path sandboxRoot) {
-        return new PathSandbox(sandboxRoot);
+        return boxroot(SandboxJailbreak.DISALLOW, sandboxRoot);
     }
 
     public static PathSandbox boxroot(SandboxJailbreak jailbreakPolicy, @NotNull Path sandboxRoot) {
-        return new PathSandbox(jailbreakPolicy, sandboxRoot);
+        return PROVIDER.getOrCreateFileSystem(jailbreakPolicy, sandboxRoot.toAbsolutePath().normalize()).getPathSandbox();
     }
 
     public static PathSandbox boxroot(String first, String... more) {
-        Path constructedPath = Path.of(first, more);
-        return new PathSandbox(constructedPath);
+        return boxroot(Path.of(first, more));
     }
 
     public static PathSandbox boxroot(SandboxJailbreak jailbreakPolicy, String first, String... more) {
-        Path constructedPath = Path.of(first, more);
-        return new PathSandbox(jailbreakPolicy, constructedPath);
+        return boxroot(jailbreakPolicy, Path.of(first, more));
     }
 
-    private static BoxedFileSystem getFilesystem(SandboxJailbreak jailbreakPolicy, @NotNull Path sandboxRoot) {
-        try {
-            return (BoxedFileSystem) FileSystems.newFileSystem(BoxedPath.toUri(jailbreakPolicy, sandboxRoot), Collections.emptyMap());
-        }
-        catch (FileSystemAlreadyExistsException | IOException ex) {
-            return (BoxedFileSystem) FileSystems.getFileSystem(BoxedPath.toUri(jailbreakPolicy, sandboxRoot));
+    // The provider registered through META-INF/services, so sandbox: URIs resolve to the same file systems.
+    // When the system class loader can't see it (e.g. nested jars), a private instance keeps the registry.
+    private static BoxedFileSystemProvider installedProvider() {
+        for (FileSystemProvider provider : FileSystemProvider.installedProviders()) {
+            if (provider instanceof BoxedFileSystemProvider boxedProvider) {
+                return boxedProvider;
+            }
         }
+        return new BoxedFileSystemProvider();
     }
 
     private final BoxedFileSystem m_fs;
 
-    private PathSandbox(@NotNull Path sandboxRoot) {
-        this(SandboxJailbreak.DISALLOW, sandboxRoot);
-    }
-
-    private PathSandbox(SandboxJailbreak jailbreakPolicy, @NotNull Path sandboxRoot) {
-        m_fs = getFilesystem(jailbreakPolicy, sandboxRoot);
+    // intentionally package private; created once per BoxedFileSystem
+    PathSandbox(@NotNull BoxedFileSystem fs) {
+        m_fs = fs;
     }
 
     public @NotNull BoxedPath getRoot() {
@@ -0,0 +1,207 @@
+package com.securefromscratch.busybee.boxedpath;
+
+import javax.validation.constraints.NotNull;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Symlink-resolution cache for one DISALLOW sandbox.
+// Maps normalized absolute prefixes of existing paths to their real paths, so validating a BoxedPath doesn't
+// call toRealPath() once per component every time one is created (resolve/getParent/normalize...).
+// Only components that are not symlinks are cached, and only while every component before them was too: where a
+// link points to can change anywhere along its target's own chain, so symlinks and everything below them are
+// resolved by toRealPath() on every check.
+// A cached entry is only used after a cheap check that the component is still the same file system entry: an
+// lstat (NOFOLLOW_LINKS) must report the same file key and still no symlink. So a directory swapped for a symlink
+// is caught by the very next check, whatever the watcher is doing.
+// The directory holding each cached entry is also watched, so changed entries are dropped instead of failing
+// that check over and over; an overflowed or cancelled watch drops more. Entries are only a saving, never trusted.
+// Names that don't exist yet are never cached, so they are resolved again on every check.
+// The sandbox root itself is resolved once; it comes from configuration and is not watched.
+class RealPathCache {
+    private static final int MAX_ENTRIES = 4096;
+
+    private final @NotNull Path m_sandboxAbsolute;
+    // what a component was when it was resolved; fileKey is never null (such file systems aren't cached)
+    private record Resolved(Path realPath, Object fileKey) {
+    }
+
+    private final Map<Path, Resolved> m_realPrefixes = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> m_watchedDirs = new ConcurrentHashMap<>();
+    // bumped on every invalidation; an entry resolved across an invalidation is not kept
+    private final AtomicLong m_generation = new AtomicLong();
+    private final WatchService m_watcher;
+    private volatile Path m_realSandbox;
+
+    RealPathCache(@NotNull Path sandboxAbsolute) {
+        m_sandboxAbsolute = sandboxAbsolute;
+        m_watcher = newWatcher(sandboxAbsolute);
+        if (m_watcher != null) {
+            Thread watcherThread = new Thread(this::watchLoop, "sandbox-watch-" + sandboxAbsolute.getFileName());
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+    }
+
+    private static WatchService newWatcher(Path sandboxAbsolute) {
+        try {
+            return sandboxAbsolute.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            // no change notifications: nothing is cached, every check resolves from scratch
+            return null;
+        }
+    }
+
+    Optional<Path> realSandbox() {
+        Path realSandbox = m_realSandbox;
+        if (realSandbox == null) {
+            try {
+                realSandbox = m_sandboxAbsolute.toRealPath();
+            } catch (IOException ex) {
+                return Optional.empty();
+            }
+            m_realSandbox = realSandbox;
+        }
+        return Optional.of(realSandbox);
+    }
+
+    // Real path of the longest existing prefix of absolutePath (normalized, within the sandbox)
+    Path realPrefixOf(@NotNull Path absolutePath, @NotNull Path realSandbox) {
+        if (absolutePath.equals(m_sandboxAbsolute)) {
+            return realSandbox;
+        }
+        Path relativePart = m_sandboxAbsolute.relativize(absolutePath);
+        Path logicalPrefix = m_sandboxAbsolute;
+        Path realPathPrefix = realSandbox;
+        // false from the first component that is a symlink (or can't be identified) on
+        boolean cacheable = true;
+        for (int i = 0; i < relativePart.getNameCount(); ++i) {
+            Path parent = logicalPrefix;
+            logicalPrefix = logicalPrefix.resolve(relativePart.getName(i));
+
+            Resolved cached = cacheable ? m_realPrefixes.get(logicalPrefix) : null;
+            if (cached != null) {
+                if (isUnchanged(logicalPrefix, cached)) {
+                    realPathPrefix = cached.realPath();
+                    continue;
+                }
+                m_realPrefixes.remove(logicalPrefix, cached);
+            }
+
+            long generation = m_generation.get();
+            // watch before resolving, so a change racing with the resolution is still noticed
+            boolean watched = cacheable && watch(parent);
+            // the entry is described before it is resolved: if it changes in between, the description won't match
+            BasicFileAttributes described = watched ? describe(logicalPrefix) : null;
+            try {
+                realPathPrefix = realPathPrefix.resolve(relativePart.getName(i)).toRealPath();
+            } catch (IOException ex) {
+                // adding path part results in path that doesn't exist on file system, so all path parts from here on are not symlinks
+                break;
+            }
+            if (described == null || described.isSymbolicLink()) {
+                cacheable = false;
+            } else {
+                remember(logicalPrefix, new Resolved(realPathPrefix, described.fileKey()), generation);
+            }
+        }
+        return realPathPrefix;
+    }
+
+    // One lstat; null when the entry can't be identified
+    private static BasicFileAttributes describe(Path logicalPrefix) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(logicalPrefix, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return (attrs.fileKey() == null) ? null : attrs;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static boolean isUnchanged(Path logicalPrefix, Resolved cached) {
+        BasicFileAttributes current = describe(logicalPrefix);
+        return current != null && !current.isSymbolicLink() && current.fileKey().equals(cached.fileKey());
+    }
+
+    private void remember(Path logicalPrefix, Resolved resolved, long generation) {
+        if (m_realPrefixes.size() >= MAX_ENTRIES) {
+            invalidateAll();
+            return;
+        }
+        m_realPrefixes.put(logicalPrefix, resolved);
+        if (m_generation.get() != generation) {
+            m_realPrefixes.remove(logicalPrefix);
+        }
+    }
+
+    private boolean watch(Path dir) {
+        if (m_watcher == null) {
+            return false;
+        }
+        try {
+            m_watchedDirs.computeIfAbsent(dir, d -> {
+                try {
+                    return d.register(m_watcher,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            return true;
+        } catch (IllegalStateException ex) {
+            // includes ClosedWatchServiceException
+            return false;
+        }
+    }
+
+    private void watchLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = m_watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                invalidateAll();
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateAll();
+                } else {
+                    invalidateUnder(dir.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                // directory is gone (or was replaced); nothing cached below it can be trusted
+                m_watchedDirs.remove(dir, key);
+                invalidateUnder(dir);
+            }
+        }
+    }
+
+    private void invalidateUnder(Path logicalPrefix) {
+        m_generation.incrementAndGet();
+        m_realPrefixes.keySet().removeIf(p -> p.startsWith(logicalPrefix));
+    }
+
+    private void invalidateAll() {
+        m_generation.incrementAndGet();
+        m_realPrefixes.clear();
+        m_watchedDirs.values().forEach(WatchKey::cancel);
+        m_watchedDirs.clear();
+    }
+}
@@ -1,9 +1,10 @@
 package com.securefromscratch.busybee.controllers;
 
 import com.securefromscratch.busybee.safety.CommentText;
+import com.securefromscratch.busybee.storage.CommentImageFetcher;
 import com.securefromscratch.busybee.storage.FileStorage;
-import com.securefromscratch.busybee.storage.UrlImageDownloader;
 import com.securefromscratch.busybee.storage.Task;
+import com.securefromscratch.busybee.storage.TaskComment;
 import com.securefromscratch.busybee.storage.TaskNotFoundException;
 import com.securefromscratch.busybee.storage.TasksStorage;
 
@@ -23,7 +24,6 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.*;
-import java.nio.file.Path;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -35,7 +35,10 @@ public class CommentsUploadController {
     private TasksStorage m_tasks;
 
     @Autowired
-    private UrlImageDownloader m_urlImageDownloader;
+    private CommentImageFetcher m_commentImageFetcher;
+
+    @Autowired
+    private FileStorage m_fileStorage;
 
     // TODO: If you don't have a CommentText type - use whatever type you have
         public record AddCommentFields(
@@ -77,25 +80,30 @@ public class CommentsUploadController {
         }
 
         LOGGER.info("Comment add with imageUrl: taskId={} user={}", commentFields.taskid(), FileStorage.safeLogValue(username));
-        String storedFilename = m_urlImageDownloader.downloadAndStore(commentFields.imageUrl().get(), username);
-        String lowerStored = storedFilename.toLowerCase();
-        Optional<String> imageFilename = lowerStored.endsWith(".pdf") ? Optional.empty() : Optional.of(storedFilename);
-        Optional<String> attachFilename = lowerStored.endsWith(".pdf") ? Optional.of(storedFilename) : Optional.empty();
-
-        UUID newComment = m_tasks.addComment(
+        // the comment is created now; the image is fetched in the background (see GET /comment/image-status)
+        UUID newComment = m_commentImageFetcher.addCommentWithImageUrl(
                 t.get(),
                 commentFields.text().get(),
-                imageFilename,
-                attachFilename,
+                commentFields.imageUrl().get(),
                 username,
                 commentFields.commentid()
         );
-		LOGGER.info("Comment added: taskId={} commentId={} by user={}", commentFields.taskid(), newComment, username);
+		LOGGER.info("Comment added (image pending): taskId={} commentId={} by user={}", commentFields.taskid(), newComment, username);
 		return ResponseEntity.ok(new CreatedCommentId(newComment));
     }
 
+    public record CommentImageStatus(UUID commentid, CommentImageFetcher.Status status, Optional<String> image, Optional<String> attachment) {}
+    @PreAuthorize("@tasksAuthorization.userAllowedToComment(#taskid, authentication.name)")
+    @GetMapping("/comment/image-status")
+    public CommentImageStatus imageStatus(@RequestParam("taskid") UUID taskid, @RequestParam("commentid") UUID commentid) {
+        CommentImageFetcher.Status status = m_commentImageFetcher.status(taskid, commentid)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Comment not found"));
+        TaskComment comment = m_tasks.findComment(taskid, commentid)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Comment not found"));
+        return new CommentImageStatus(commentid, status, comment.image(), comment.attachment());
+    }
+
 	private String filePartProcessing(MultipartFile fileData, String username) throws IOException {
-        FileStorage storage = new FileStorage(Path.of("uploads").toAbsolutePath().normalize());
-        return storage.storeUpload(fileData, username);
+        return m_fileStorage.storeUpload(fileData, username);
 	}
 }
@@ -0,0 +1,90 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Read-only memory mappings of large files, shared by concurrent readers.
+// The first reader maps the file through the sandboxed channel it opened; readers of the same content (path and
+// entity tag) get the same mapping, counted, and it leaves the registry when the last of them is done. Java can't
+// unmap explicitly, so the GC unmaps it once no slice of it is referenced any more.
+// Only files that are never rewritten in place may be mapped: reading a mapped page that a truncation removed
+// fails with an InternalError instead of an IOException.
+final class MappedFiles {
+    private record Key(BoxedPath path, String etag) {
+    }
+
+    private record Shared(MappedByteBuffer buffer, int users) {
+    }
+
+    private final long m_threshold;
+    private final Map<Key, Shared> m_mapped = new ConcurrentHashMap<>();
+
+    // Released by close(); a Mapping belongs to one request
+    final class Mapping implements AutoCloseable {
+        private final Key m_key;
+        private final ByteBuffer m_buffer;
+        private boolean m_closed;
+
+        private Mapping(Key key, ByteBuffer buffer) {
+            m_key = key;
+            m_buffer = buffer;
+        }
+
+        long size() {
+            return m_buffer.capacity();
+        }
+
+        // [position, position + length) as a buffer of its own, so readers never share a position
+        ByteBuffer slice(long position, long length) {
+            return m_buffer.slice((int) position, (int) length);
+        }
+
+        @Override
+        public void close() {
+            if (!m_closed) {
+                m_closed = true;
+                m_mapped.computeIfPresent(m_key, (k, shared) -> shared.users() <= 1 ? null : new Shared(shared.buffer(), shared.users() - 1));
+            }
+        }
+    }
+
+    MappedFiles(long threshold) {
+        m_threshold = threshold;
+    }
+
+    // a single buffer can't map more than 2GB; uploads are far smaller anyway
+    boolean maps(long size) {
+        return size >= m_threshold && size <= Integer.MAX_VALUE;
+    }
+
+    Mapping acquire(BoxedPath path, String etag, FileChannel channel, long size) throws IOException {
+        Key key = new Key(path, etag);
+        Shared shared;
+        try {
+            shared = m_mapped.compute(key, (k, existing) -> {
+                if (existing != null) {
+                    return new Shared(existing.buffer(), existing.users() + 1);
+                }
+                try {
+                    return new Shared(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 1);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return new Mapping(key, shared.buffer());
+    }
+
+    int mappedCount() {
+        return m_mapped.size();
+    }
+}
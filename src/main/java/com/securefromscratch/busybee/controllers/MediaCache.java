@@ -0,0 +1,119 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded cache of small, frequently requested media files, held off-heap in direct buffers.
+// Keyed by sandboxed path; each entry remembers the entity tag (content hash) it was read under, so a rewritten
+// file is a miss and its new content replaces the old copy. Eviction is LRU by total bytes.
+// A file is only loaded the second time it misses (a "doorkeeper", as in TinyLFU), so a one-off sweep through
+// attachments can't push out the thumbnails everyone is looking at.
+// An evicted buffer that is still being written to a response stays valid; the GC releases its memory afterwards.
+final class MediaCache {
+    // how many recently missed paths the doorkeeper remembers
+    private static final int MAX_SEEN_ONCE = 4096;
+
+    record Stats(long hits, long misses, long loads, long evictions, int entries, long bytes, long maxBytes) {
+    }
+
+    private record Entry(String etag, ByteBuffer content) {
+    }
+
+    private final long m_maxBytes;
+    private final int m_maxEntryBytes;
+    // access-ordered: the first entry is the least recently used; guarded by this, as are the counters
+    private final LinkedHashMap<BoxedPath, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<BoxedPath, Boolean> m_seenOnce = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BoxedPath, Boolean> eldest) {
+            return size() > MAX_SEEN_ONCE;
+        }
+    };
+    private long m_bytes;
+    private long m_hits;
+    private long m_misses;
+    private long m_loads;
+    private long m_evictions;
+
+    MediaCache(long maxBytes, int maxEntryBytes) {
+        m_maxBytes = maxBytes;
+        m_maxEntryBytes = maxEntryBytes;
+    }
+
+    boolean admits(long size) {
+        return size > 0 && size <= m_maxEntryBytes && size <= m_maxBytes;
+    }
+
+    // The cached content (a fresh read-only view, positioned at 0), or null
+    synchronized ByteBuffer get(BoxedPath path, String etag) {
+        Entry entry = m_entries.get(path);
+        if (entry != null && entry.etag().equals(etag)) {
+            ++m_hits;
+            return entry.content().duplicate();
+        }
+        if (entry != null) {
+            // the file was rewritten; its old content is of no use to anyone
+            m_entries.remove(path);
+            m_bytes -= entry.content().capacity();
+        }
+        ++m_misses;
+        return null;
+    }
+
+    // Called after a miss, with the file open: reads it into the cache if it has missed before, and returns the
+    // cached content; null if it wasn't loaded (first miss, or the file changed size while being read)
+    ByteBuffer load(BoxedPath path, String etag, FileChannel channel, long size) throws IOException {
+        if (!admits(size)) {
+            return null;
+        }
+        synchronized (this) {
+            if (m_seenOnce.remove(path) == null) {
+                m_seenOnce.put(path, Boolean.TRUE);
+                return null;
+            }
+        }
+
+        // read outside the lock; concurrent loads of one file each read it and the last one is kept
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        while (content.hasRemaining()) {
+            if (channel.read(content, content.position()) < 0) {
+                return null;
+            }
+        }
+        if (channel.size() != size) {
+            return null;
+        }
+        ByteBuffer readOnly = content.flip().asReadOnlyBuffer();
+
+        synchronized (this) {
+            Entry previous = m_entries.put(path, new Entry(etag, readOnly));
+            if (previous != null) {
+                m_bytes -= previous.content().capacity();
+            }
+            m_bytes += readOnly.capacity();
+            ++m_loads;
+            evictOverLimit();
+        }
+        return readOnly.duplicate();
+    }
+
+    synchronized Stats stats() {
+        return new Stats(m_hits, m_misses, m_loads, m_evictions, m_entries.size(), m_bytes, m_maxBytes);
+    }
+
+    private void evictOverLimit() {
+        Iterator<Entry> lru = m_entries.values().iterator();
+        while (m_bytes > m_maxBytes && lru.hasNext()) {
+            Entry evicted = lru.next();
+            lru.remove();
+            m_bytes -= evicted.content().capacity();
+            ++m_evictions;
+        }
+    }
+}
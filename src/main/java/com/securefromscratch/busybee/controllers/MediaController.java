@@ -1,12 +1,15 @@
 package com.securefromscratch.busybee.controllers;
 
 import com.securefromscratch.busybee.boxedpath.BoxedPath;
-import com.securefromscratch.busybee.boxedpath.PathSandbox;
 import com.securefromscratch.busybee.safety.ImageName;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import com.securefromscratch.busybee.storage.FileStorage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -16,39 +19,88 @@ import org.springframework.web.server.ResponseStatusException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @RestController
 @PreAuthorize("denyAll()")
 public class MediaController {
-    private static final PathSandbox UPLOADS = PathSandbox.boxroot("uploads");
+    // Stored uploads never change; anything else (seeded files) must be revalidated, which is a cheap 304
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
+    private static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+    private static final int MAX_CACHED_ETAGS = 10_000;
+    // hot thumbnails and small attachments; larger files go through sendfile or a channel transfer
+    private static final long MEDIA_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int MEDIA_CACHE_MAX_ENTRY_BYTES = 1024 * 1024;
+    // large uploads (PDFs near MAX_UPLOAD_BYTES) are served from a shared mapping when sendfile isn't available
+    private static final long MAPPED_FILE_THRESHOLD = 1024 * 1024;
 
+    // Hashes are normally recorded with the file (FileStorage); this spares even reading that attribute per request.
+    // Entries are per (path, size, mtime): a rewritten file gets a new one. Least recently used entries go first.
+    private record CachedEtag(long size, Instant lastModified, String etag) { }
+    private final Map<BoxedPath, CachedEtag> m_etags = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BoxedPath, CachedEtag> eldest) {
+            return size() > MAX_CACHED_ETAGS;
+        }
+    });
+    private final MediaCache m_mediaCache = new MediaCache(MEDIA_CACHE_BYTES, MEDIA_CACHE_MAX_ENTRY_BYTES);
+    private final MappedFiles m_mappedFiles = new MappedFiles(MAPPED_FILE_THRESHOLD);
+
+    @Autowired
+    private FileStorage m_fileStorage;
+
+    // size (optional) asks for a thumbnail of that width (FileStorage.THUMBNAIL_WIDTHS)
     @GetMapping("/image")
     @PreAuthorize("@tasksAuthorization.imageIsInOwnedOrAssignedTask(#file.value(), authentication.name)")
-    public ResponseEntity<byte[]> getImage(@RequestParam("file") ImageName file) throws IOException {
-        BoxedPath path = UPLOADS.getRoot().resolve(file.value());
-        verifyExists(path, "image");
-
-        MediaType contentType = probeContentType(path);
-        byte[] bytes = Files.readAllBytes(path);
-        return ResponseEntity.ok()
-                .contentType(contentType)
-                .body(bytes);
+    public void getImage(@RequestParam("file") ImageName file, @RequestParam(value = "size", required = false) Integer size,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BoxedPath original = m_fileStorage.resolve(file.value());
+        verifyExists(original, "image");
+
+        BoxedPath path = original;
+        if (size != null) {
+            if (!FileStorage.THUMBNAIL_WIDTHS.contains(size)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "image: unsupported size");
+            }
+            path = m_fileStorage.thumbnail(original, size);
+        }
+        // a thumbnail is as immutable as the upload it was made from
+        MediaSender.send(path, probeContentType(path), validatorsFor(path, FileStorage.isImmutableUpload(original)), m_mediaCache, m_mappedFiles, request, response);
     }
 
     @GetMapping("/attachment")
     @PreAuthorize("@tasksAuthorization.attachmentIsInOwnedOrAssignedTask(#file.value(), authentication.name)")
-    public ResponseEntity<byte[]> getAttachment(@RequestParam("file") ImageName file) throws IOException {
-        BoxedPath path = UPLOADS.getRoot().resolve(file.value());
+    public void getAttachment(@RequestParam("file") ImageName file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BoxedPath path = m_fileStorage.resolve(file.value());
         verifyExists(path, "attachment");
 
-        MediaType contentType = probeContentType(path);
-        byte[] bytes = Files.readAllBytes(path);
-
         String filename = Path.of(file.value()).getFileName().toString();
-        return ResponseEntity.ok()
-                .contentType(contentType)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                .body(bytes);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        MediaSender.send(path, probeContentType(path), validatorsFor(path, FileStorage.isImmutableUpload(path)), m_mediaCache, m_mappedFiles, request, response);
+    }
+
+    @GetMapping("/media/cache-stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public MediaCache.Stats getCacheStats() {
+        return m_mediaCache.stats();
+    }
+
+    private MediaSender.Validators validatorsFor(BoxedPath path, boolean immutable) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        Instant lastModified = attrs.lastModifiedTime().toInstant();
+
+        CachedEtag cached = m_etags.get(path);
+        if (cached == null || cached.size() != attrs.size() || !cached.lastModified().equals(lastModified)) {
+            cached = new CachedEtag(attrs.size(), lastModified, "\"" + FileStorage.contentHash(path) + "\"");
+            m_etags.put(path, cached);
+        }
+        CacheControl cacheControl = immutable ? IMMUTABLE : REVALIDATE;
+        return new MediaSender.Validators(cached.etag(), lastModified, cacheControl);
     }
 
     private static void verifyExists(Path path, String kind) {
@@ -0,0 +1,360 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+import com.securefromscratch.busybee.storage.FileStorage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+
+// Writes a sandboxed file to the response without ever holding the whole file on the heap.
+// When the servlet container supports sendfile (Tomcat NIO does by default) the kernel copies the file
+// straight to the socket; otherwise the file channel is transferred to the response stream in chunks.
+// Supports RFC 7233 byte ranges (single -> 206 with Content-Range, several -> multipart/byteranges)
+// and If-Range, so interrupted downloads resume and PDF viewers can fetch pages lazily.
+// Conditional GETs (If-None-Match / If-Modified-Since) are answered with 304 before the file is opened.
+// Small files that are requested again and again are served from a MediaCache instead of the disk, and large
+// stored uploads from shared memory mappings (MappedFiles) instead of through a heap buffer.
+final class MediaSender {
+    // Tomcat's sendfile contract: request attributes read by the connector after the servlet returns
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // below this, a plain write is cheaper than handing the file over to the poller
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+    // more ranges than this is not a viewer fetching pages; serve the whole file instead
+    private static final int MAX_RANGES = 16;
+
+    private MediaSender() { }
+
+    // inclusive byte positions, as in Content-Range
+    private record ByteRange(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long size) {
+            return "bytes " + start + "-" + end + "/" + size;
+        }
+    }
+
+    // Validators and caching policy for one file; the entity tag is strong (derived from the content hash)
+    record Validators(String etag, Instant lastModified, CacheControl cacheControl) {
+        Validators {
+            lastModified = lastModified.truncatedTo(ChronoUnit.SECONDS);
+        }
+    }
+
+    // The bytes to send: the file itself, or a cached copy of it
+    private interface Content {
+        long size();
+
+        // set when the connector can sendfile the content
+        Optional<BoxedPath> file();
+
+        void copy(long position, long count, WritableByteChannel out) throws IOException;
+    }
+
+    private record FileContent(BoxedPath path, FileChannel channel, long size) implements Content {
+        @Override
+        public Optional<BoxedPath> file() {
+            return Optional.of(path);
+        }
+
+        @Override
+        public void copy(long position, long count, WritableByteChannel out) throws IOException {
+            // positional: doesn't move the channel's own position, so ranges can be sent in any order
+            long sent = 0;
+            while (sent < count) {
+                long n = channel.transferTo(position + sent, count - sent, out);
+                if (n <= 0) {
+                    throw new IOException("media: file truncated while sending");
+                }
+                sent += n;
+            }
+        }
+    }
+
+    private record MappedContent(MappedFiles.Mapping mapping) implements Content {
+        @Override
+        public long size() {
+            return mapping.size();
+        }
+
+        @Override
+        public Optional<BoxedPath> file() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void copy(long position, long count, WritableByteChannel out) throws IOException {
+            writeFully(out, mapping.slice(position, count));
+        }
+    }
+
+    private record CachedContent(ByteBuffer buffer) implements Content {
+        @Override
+        public long size() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public Optional<BoxedPath> file() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void copy(long position, long count, WritableByteChannel out) throws IOException {
+            writeFully(out, buffer.duplicate().limit((int) (position + count)).position((int) position));
+        }
+    }
+
+    static void send(BoxedPath path, MediaType contentType, Validators validators, MediaCache cache, MappedFiles mappedFiles,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, validators.etag());
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, validators.lastModified().toEpochMilli());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, validators.cacheControl().getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (notModified(request, validators)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        ByteBuffer cached = cache.get(path, validators.etag());
+        if (cached != null) {
+            sendContent(new CachedContent(cached), contentType, validators, request, response);
+            return;
+        }
+
+        // opened through the sandbox provider, so the same path checks apply as for any other access
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // what the connector would sendfile is already served from the page cache without copies
+            boolean sendfile = size >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR));
+            ByteBuffer loaded = sendfile ? null : cache.load(path, validators.etag(), channel, size);
+            if (loaded != null) {
+                sendContent(new CachedContent(loaded), contentType, validators, request, response);
+                return;
+            }
+            // only stored uploads are mapped: they are never truncated or rewritten in place
+            if (!sendfile && mappedFiles.maps(size) && FileStorage.isImmutableUpload(path)) {
+                try (MappedFiles.Mapping mapping = mappedFiles.acquire(path, validators.etag(), channel, size)) {
+                    sendContent(new MappedContent(mapping), contentType, validators, request, response);
+                }
+                return;
+            }
+            sendContent(new FileContent(path, channel, size), contentType, validators, request, response);
+        }
+    }
+
+    private static void sendContent(Content content, MediaType contentType, Validators validators,
+                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long size = content.size();
+        Optional<List<ByteRange>> ranges = ifRangeMatches(request.getHeader(HttpHeaders.IF_RANGE), validators)
+                ? parseRanges(request.getHeader(HttpHeaders.RANGE), size)
+                : Optional.empty();
+
+        if (ranges.isEmpty()) {
+            sendRange(content, new ByteRange(0, size - 1), contentType, request, response);
+            return;
+        }
+        if (ranges.get().isEmpty()) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.get().size() == 1) {
+            ByteRange range = ranges.get().get(0);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange(size));
+            sendRange(content, range, contentType, request, response);
+        } else {
+            sendMultipart(content, ranges.get(), contentType, response);
+        }
+    }
+
+    // RFC 7232: If-None-Match (weak comparison) wins over If-Modified-Since
+    private static boolean notModified(HttpServletRequest request, Validators validators) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            String ours = opaqueTag(validators.etag());
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || opaqueTag(tag).equals(ours)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Optional<Instant> ifModifiedSince = parseHttpDate(request.getHeader(HttpHeaders.IF_MODIFIED_SINCE));
+        return ifModifiedSince.isPresent() && !validators.lastModified().isAfter(ifModifiedSince.get());
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static void sendRange(Content content, ByteRange range, MediaType contentType,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = Math.max(range.length(), 0);
+        response.setContentType(contentType.toString());
+        response.setContentLengthLong(length);
+
+        Optional<BoxedPath> file = content.file();
+        if (file.isPresent() && length >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            // toRealPath() re-validates the fully resolved path against the sandbox
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.get().toRealPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, range.start());
+            // exclusive end
+            request.setAttribute(SENDFILE_END_ATTR, range.end() + 1);
+            return;
+        }
+
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        content.copy(range.start(), length, out);
+    }
+
+    private static void sendMultipart(Content content, List<ByteRange> ranges, MediaType contentType,
+                                      HttpServletResponse response) throws IOException {
+        long size = content.size();
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + range.contentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + range.length();
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+
+        WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+        for (int i = 0; i < ranges.size(); ++i) {
+            writeFully(out, ByteBuffer.wrap(partHeaders.get(i)));
+            content.copy(ranges.get(i).start(), ranges.get(i).length(), out);
+        }
+        writeFully(out, ByteBuffer.wrap(trailer));
+    }
+
+    // Optional.empty(): no usable Range header, send the whole file.
+    // Empty list: syntactically valid, but no range overlaps the file (416).
+    private static Optional<List<ByteRange>> parseRanges(String header, long size) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return Optional.empty();
+        }
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return Optional.empty();
+        }
+
+        List<ByteRange> satisfiable = new ArrayList<>(specs.length);
+        for (String rawSpec : specs) {
+            String spec = rawSpec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return Optional.empty();
+            }
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return Optional.empty();
+                    }
+                    if (suffix > 0 && size > 0) {
+                        satisfiable.add(new ByteRange(Math.max(size - suffix, 0), size - 1));
+                    }
+                    continue;
+                }
+                long start = Long.parseLong(spec.substring(0, dash));
+                long end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (start < 0 || end < start) {
+                    return Optional.empty();
+                }
+                if (start < size) {
+                    satisfiable.add(new ByteRange(start, Math.min(end, size - 1)));
+                }
+            } catch (NumberFormatException ex) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(coalesce(satisfiable));
+    }
+
+    // overlapping or adjacent ranges are merged, so a client can't make us send the same bytes many times over
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(ByteRange::start));
+        List<ByteRange> merged = new ArrayList<>(sorted.size());
+        ByteRange current = sorted.get(0);
+        for (ByteRange next : sorted.subList(1, sorted.size())) {
+            if (next.start() <= current.end() + 1) {
+                current = new ByteRange(current.start(), Math.max(current.end(), next.end()));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    // If-Range needs a strong match: the exact entity tag, or exactly the Last-Modified date
+    private static boolean ifRangeMatches(String ifRange, Validators validators) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(validators.etag());
+        }
+        return parseHttpDate(value).map(validators.lastModified()::equals).orElse(false);
+    }
+
+    private static Optional<Instant> parseHttpDate(String value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME.withLocale(Locale.US)).toInstant());
+        } catch (DateTimeParseException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -6,13 +6,14 @@ import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.UUID;
 
-public record TaskCommentOut(UUID commentid, String text, Optional<String> image, Optional<String> attachment, int indent, String createdBy, LocalDateTime createdOn) {
+public record TaskCommentOut(UUID commentid, String text, Optional<String> image, Optional<String> attachment, TaskComment.FetchState fetchState, int indent, String createdBy, LocalDateTime createdOn) {
     static TaskCommentOut fromComment(TaskComment c) {
         return new TaskCommentOut(
                 c.commentId(),
                 c.text(),
                 c.image(),
                 c.attachment(),
+                c.fetchState(),
                 c.indent(),
                 c.createdBy(),
                 c.createdOn()
@@ -0,0 +1,162 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.auth.TasksAuthorization;
+import com.securefromscratch.busybee.storage.FileStorage;
+import com.securefromscratch.busybee.storage.TaskEvent;
+import com.securefromscratch.busybee.storage.TasksStorage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Server-Sent Events push of task changes (task-created, task-done, comment-added).
+// Each event is delivered only to subscribers allowed to view the task (same rule as GET /tasks).
+// Publishing never blocks: every subscriber has a small bounded queue that drops its oldest event when full,
+// and is drained on its own virtual thread, so a slow browser tab only delays itself.
+// Event ids are task revisions; after a gap a client can catch up with /tasks/changes?since=<last id>.
+@RestController
+@PreAuthorize("denyAll()")
+public class TaskEventsController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskEventsController.class);
+    private static final int MAX_QUEUED_EVENTS = 64;
+    private static final int MAX_SUBSCRIPTIONS_PER_USER = 5;
+    private static final long SUBSCRIPTION_TIMEOUT_MS = 30 * 60 * 1000;
+
+    private final Set<Subscriber> m_subscribers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> m_subscriptionsPerUser = new ConcurrentHashMap<>();
+    private final ExecutorService m_senders = Executors.newVirtualThreadPerTaskExecutor();
+
+    public TaskEventsController(TasksStorage tasks) {
+        tasks.addListener(this::publish);
+    }
+
+    @GetMapping(value = "/tasks/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @PreAuthorize("permitAll()")
+    public SseEmitter subscribe(Authentication authentication) {
+        String username = authentication.getName();
+        boolean isAdmin = TasksAuthorization.containsRole(authentication.getAuthorities(), new String[]{"ADMIN"});
+
+        Integer count = m_subscriptionsPerUser.merge(username, 1, Integer::sum);
+        if (count > MAX_SUBSCRIPTIONS_PER_USER) {
+            releaseSubscription(username);
+            LOGGER.warn("Task events subscription rejected: too many subscriptions; user={}", FileStorage.safeLogValue(username));
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "events: too many subscriptions");
+        }
+
+        SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT_MS);
+        Subscriber subscriber = new Subscriber(username, isAdmin, emitter);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(ex -> unsubscribe(subscriber));
+        m_subscribers.add(subscriber);
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        m_senders.shutdownNow();
+        m_subscribers.forEach(s -> s.m_emitter.complete());
+    }
+
+    // Converted once, here on the mutating thread, from the snapshot the event carries; the senders only write it out
+    private void publish(TaskEvent event) {
+        OutgoingEvent outgoing = null;
+        for (Subscriber subscriber : m_subscribers) {
+            if (subscriber.m_isAdmin || TasksAuthorization.userAllowedToViewTask(event.task(), subscriber.m_username)) {
+                if (outgoing == null) {
+                    outgoing = new OutgoingEvent(eventName(event.type()), event.revision(), TaskOut.fromTask(event.task()));
+                }
+                subscriber.enqueue(outgoing);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        if (m_subscribers.remove(subscriber)) {
+            releaseSubscription(subscriber.m_username);
+        }
+    }
+
+    private void releaseSubscription(String username) {
+        m_subscriptionsPerUser.computeIfPresent(username, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private static String eventName(TaskEvent.Type type) {
+        return type.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    private record OutgoingEvent(String name, long revision, TaskOut task) {
+    }
+
+    private final class Subscriber {
+        private final String m_username;
+        private final boolean m_isAdmin;
+        private final SseEmitter m_emitter;
+        // guarded by this
+        private final ArrayDeque<OutgoingEvent> m_queue = new ArrayDeque<>(MAX_QUEUED_EVENTS);
+        private boolean m_draining;
+        private long m_dropped;
+
+        Subscriber(String username, boolean isAdmin, SseEmitter emitter) {
+            m_username = username;
+            m_isAdmin = isAdmin;
+            m_emitter = emitter;
+        }
+
+        void enqueue(OutgoingEvent event) {
+            synchronized (this) {
+                if (m_queue.size() == MAX_QUEUED_EVENTS) {
+                    m_queue.pollFirst();
+                    ++m_dropped;
+                }
+                m_queue.addLast(event);
+                if (m_draining) {
+                    return;
+                }
+                m_draining = true;
+            }
+            m_senders.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                OutgoingEvent event;
+                synchronized (this) {
+                    event = m_queue.pollFirst();
+                    if (event == null) {
+                        m_draining = false;
+                        return;
+                    }
+                }
+                try {
+                    m_emitter.send(SseEmitter.event()
+                            .name(event.name())
+                            .id(Long.toString(event.revision()))
+                            .data(event.task(), MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException ex) {
+                    // client went away (or the emitter already completed)
+                    LOGGER.debug("Task events subscriber disconnected: user={} dropped={}", FileStorage.safeLogValue(m_username), m_dropped);
+                    unsubscribe(this);
+                    m_emitter.completeWithError(ex);
+                    return;
+                }
+            }
+        }
+    }
+}
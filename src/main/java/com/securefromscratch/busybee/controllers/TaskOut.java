@@ -11,14 +11,20 @@ import java.time.LocalTime;
 import java.util.Optional;
 import java.util.UUID;
 
-public record TaskOut(UUID taskid, String name, String desc, Optional<LocalDate> dueDate, Optional<LocalTime> dueTime, String createdBy, String[] responsibilityOf, LocalDateTime creationDatetime, boolean done, TaskCommentOut[] comments) {
+// comments is null when only the count was requested
+public record TaskOut(UUID taskid, String name, String desc, Optional<LocalDate> dueDate, Optional<LocalTime> dueTime, String createdBy, String[] responsibilityOf, LocalDateTime creationDatetime, boolean done, int commentCount, TaskCommentOut[] comments) {
     static TaskOut fromTask(Task t) {
+        return fromTask(t, true);
+    }
+
+    static TaskOut fromTask(Task t, boolean withComments) {
         Transformer<TaskComment, TaskCommentOut> transformer = c-> TaskCommentOut.fromComment((TaskComment)c);
         return new TaskOut(
                 t.taskid(), t.name(), t.desc(),
                 t.dueDate(), t.dueTime(), t.createdBy(),
                 t.responsibilityOf(), t.creationDatetime(), t.done(),
-                CollectionUtils.collect(t.comments(), transformer).toArray(new TaskCommentOut[0])
+                t.comments().size(),
+                withComments ? CollectionUtils.collect(t.comments(), transformer).toArray(new TaskCommentOut[0]) : null
         );
     }
 }
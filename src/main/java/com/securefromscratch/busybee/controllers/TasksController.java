@@ -1,18 +1,22 @@
 package com.securefromscratch.busybee.controllers;
 
 import com.securefromscratch.busybee.storage.Task;
+import com.securefromscratch.busybee.storage.TaskQuery;
 import com.securefromscratch.busybee.storage.TasksStorage;
 
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.Transformer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PostFilter;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
@@ -21,15 +25,16 @@ import org.slf4j.LoggerFactory;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
-import java.security.Principal;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import com.securefromscratch.busybee.safety.TaskName;
 import com.securefromscratch.busybee.safety.TaskDescription;
+import com.securefromscratch.busybee.auth.TasksAuthorization;
 import com.securefromscratch.busybee.auth.UsersStorage;
 import com.securefromscratch.busybee.safety.Username;
 
@@ -39,6 +44,14 @@ import com.securefromscratch.busybee.safety.Username;
 public class TasksController {
     private static final Logger LOGGER = LoggerFactory.getLogger(TasksController.class);
     private static final int MAX_RESPONSIBLE_USERS = 5;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    // Set on GET /tasks when there are more results; pass it back as ?cursor= to get the next page
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    // Revision the GET /tasks response is consistent with; pass it to /tasks/changes?since= to poll for updates
+    static final String REVISION_HEADER = "X-Tasks-Revision";
+
+    public record TaskChangesOut(long revision, Collection<TaskOut> tasks) { }
 
     public record CreateResponse(UUID taskid) { }
 
@@ -64,14 +77,104 @@ public class TasksController {
     @GetMapping("/tasks")
     @PreAuthorize("permitAll()")
     @PostFilter("hasRole('ADMIN') or T(com.securefromscratch.busybee.auth.TasksAuthorization).userAllowedToViewTask(filterObject, authentication.name)")
-    public Collection<TaskOut> getTasks(Principal principal) {
-        List<Task> allTasks = m_tasks.getAll();
-        Transformer<Task, TaskOut> transformer = t -> TaskOut.fromTask((Task)t);
-        Collection<TaskOut> returnedVal = CollectionUtils.collect(allTasks, transformer);
+    public Collection<TaskOut> getTasks(
+            Authentication authentication,
+            @RequestParam(value = "limit", defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "order", defaultValue = "created") String order,
+            @RequestParam(value = "status", defaultValue = "all") String status,
+            @RequestParam(value = "dueBefore", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate dueBefore,
+            @RequestParam(value = "createdBy", required = false) String createdBy,
+            @RequestParam(value = "comments", defaultValue = "full") String comments,
+            HttpServletResponse response
+    ) {
+        TaskQuery query = new TaskQuery(
+                parseOrder(order),
+                parseStatus(status),
+                Optional.ofNullable(dueBefore),
+                Optional.ofNullable(createdBy),
+                Optional.ofNullable(cursor),
+                validatePageSize(limit)
+        );
+        boolean withComments = parseWithComments(comments);
+        // read before the tasks, so nothing that changes while building the page is missed by the next delta poll
+        long revision = m_tasks.currentRevision();
+
+        // Only ADMIN sees everything; everyone else gets just their own tasks from the visibility index,
+        // so the @PostFilter above only re-checks tasks that are already known to be visible.
+        List<Task> tasks = TasksAuthorization.containsRole(authentication.getAuthorities(), new String[]{"ADMIN"})
+                ? m_tasks.getAll()
+                : m_tasks.getVisibleTo(authentication.getName());
+        TaskQuery.Page page = query.apply(tasks);
+        page.nextCursor().ifPresent(next -> response.setHeader(NEXT_CURSOR_HEADER, next));
+        response.setHeader(REVISION_HEADER, Long.toString(revision));
+
+        Transformer<Task, TaskOut> transformer = t -> TaskOut.fromTask((Task)t, withComments);
+        Collection<TaskOut> returnedVal = CollectionUtils.collect(page.tasks(), transformer);
         // TasksAuthorization.filterToAuthorizedTasks(returnedVal, principal.getName()); // Filtering now handled by @PostFilter
         return returnedVal;
     }
 
+    @GetMapping("/tasks/changes")
+    @PreAuthorize("permitAll()")
+    public TaskChangesOut getTaskChanges(
+            Authentication authentication,
+            @RequestParam("since") long since,
+            @RequestParam(value = "comments", defaultValue = "full") String comments
+    ) {
+        boolean withComments = parseWithComments(comments);
+        boolean isAdmin = TasksAuthorization.containsRole(authentication.getAuthorities(), new String[]{"ADMIN"});
+
+        TasksStorage.Changes changes = m_tasks.changedSince(since);
+        List<TaskOut> visibleChanges = changes.tasks().stream()
+                .filter(t -> isAdmin || TasksAuthorization.userAllowedToViewTask(t, authentication.getName()))
+                .map(t -> TaskOut.fromTask(t, withComments))
+                .toList();
+        return new TaskChangesOut(changes.revision(), visibleChanges);
+    }
+
+    private static int validatePageSize(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            LOGGER.warn("List tasks rejected: limit out of range; limit={}", limit);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit: must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return limit;
+    }
+
+    private static TaskQuery.Order parseOrder(String order) {
+        return switch (order) {
+            case "created" -> TaskQuery.Order.CREATED;
+            case "due" -> TaskQuery.Order.DUE;
+            default -> {
+                LOGGER.warn("List tasks rejected: unknown order");
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "order: must be one of created, due");
+            }
+        };
+    }
+
+    private static Optional<Boolean> parseStatus(String status) {
+        return switch (status) {
+            case "all" -> Optional.empty();
+            case "open" -> Optional.of(false);
+            case "done" -> Optional.of(true);
+            default -> {
+                LOGGER.warn("List tasks rejected: unknown status");
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "status: must be one of all, open, done");
+            }
+        };
+    }
+
+    private static boolean parseWithComments(String comments) {
+        return switch (comments) {
+            case "full" -> true;
+            case "count" -> false;
+            default -> {
+                LOGGER.warn("List tasks rejected: unknown comments mode");
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "comments: must be one of full, count");
+            }
+        };
+    }
+
     @PostMapping("/done")
     @PreAuthorize("@tasksAuthorization.isOwnerOrResponsible(#request.taskid, authentication.name) or hasRole('ADMIN')")
     public ResponseEntity<Map<String, Boolean>> markTaskDone(
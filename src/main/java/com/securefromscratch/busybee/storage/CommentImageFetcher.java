@@ -0,0 +1,119 @@
+package com.securefromscratch.busybee.storage;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// Comments with an image URL are created right away in FetchState.PENDING; the image is downloaded on a small
+// worker pool and set on the comment afterwards (or the comment is marked FAILED), so posting a comment doesn't
+// wait for the remote server. The comment itself is the job: its state is what status() reports.
+@Service
+public class CommentImageFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CommentImageFetcher.class);
+    private static final int FETCH_WORKERS = 4;
+    // queued + running; beyond this new image comments are refused instead of queueing without bound
+    private static final int MAX_PENDING_FETCHES = 64;
+
+    public enum Status { QUEUED, DOWNLOADING, DONE, FAILED }
+
+    @Autowired
+    private TasksStorage m_tasks;
+
+    @Autowired
+    private UrlImageDownloader m_urlImageDownloader;
+
+    @Autowired
+    private FileStorage m_fileStorage;
+
+    private final ExecutorService m_workers = Executors.newFixedThreadPool(FETCH_WORKERS, r -> {
+        Thread t = new Thread(r, "comment-image-fetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Semaphore m_pendingSlots = new Semaphore(MAX_PENDING_FETCHES);
+    private final Set<UUID> m_downloading = ConcurrentHashMap.newKeySet();
+
+    @PreDestroy
+    public void close() {
+        m_workers.shutdownNow();
+    }
+
+    public UUID addCommentWithImageUrl(Task t, String text, String imageUrl, String username, Optional<UUID> after) throws IOException {
+        // bad input is still rejected synchronously; only the download itself is deferred
+        m_urlImageDownloader.validateUrl(imageUrl, username);
+        if (!m_pendingSlots.tryAcquire()) {
+            LOGGER.warn("Comment image fetch rejected (queue full): taskId={} user={}", t.taskid(), FileStorage.safeLogValue(username));
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many pending image downloads");
+        }
+
+        UUID commentId;
+        try {
+            commentId = m_tasks.addCommentAwaitingFile(t, text, username, after);
+        } catch (IOException | RuntimeException ex) {
+            m_pendingSlots.release();
+            throw ex;
+        }
+        UUID taskid = t.taskid();
+        m_workers.execute(() -> fetch(taskid, commentId, imageUrl, username));
+        return commentId;
+    }
+
+    public Optional<Status> status(UUID taskid, UUID commentId) {
+        return m_tasks.findComment(taskid, commentId).map(c -> switch (c.fetchState()) {
+            case PENDING -> m_downloading.contains(commentId) ? Status.DOWNLOADING : Status.QUEUED;
+            case FAILED -> Status.FAILED;
+            case NONE -> Status.DONE;
+        });
+    }
+
+    private void fetch(UUID taskid, UUID commentId, String imageUrl, String username) {
+        m_downloading.add(commentId);
+        try {
+            String stored;
+            try {
+                stored = m_urlImageDownloader.downloadAndStore(imageUrl, username);
+            } catch (IOException | RuntimeException ex) {
+                // UrlImageDownloader has already logged why
+                setFile(taskid, commentId, Optional.empty(), Optional.empty(), TaskComment.FetchState.FAILED);
+                return;
+            }
+
+            boolean isPdf = stored.toLowerCase(Locale.ROOT).endsWith(".pdf");
+            Optional<String> image = isPdf ? Optional.empty() : Optional.of(stored);
+            Optional<String> attachment = isPdf ? Optional.of(stored) : Optional.empty();
+            if (!setFile(taskid, commentId, image, attachment, TaskComment.FetchState.NONE)) {
+                m_fileStorage.cleanupStoredUpload(stored);
+            }
+        } finally {
+            m_downloading.remove(commentId);
+            m_pendingSlots.release();
+        }
+    }
+
+    // false only if the comment no longer exists
+    private boolean setFile(UUID taskid, UUID commentId, Optional<String> image, Optional<String> attachment, TaskComment.FetchState state) {
+        try {
+            boolean applied = m_tasks.setCommentFile(taskid, commentId, image, attachment, state);
+            LOGGER.info("Comment image fetch finished: taskId={} commentId={} state={} applied={}", taskid, commentId, state, applied);
+            return applied;
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.error("Comment image fetch result not saved: taskId={} commentId={}", taskid, commentId, ex);
+            // the comment may already reference the file in memory, so the file is kept
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.securefromscratch.busybee.storage;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Direct buffers for FileStorage's upload copy loop, reused across uploads.
+// Direct, so a FileChannel write goes from the buffer to the kernel without the JDK first copying it into a
+// temporary direct buffer; pooled, because allocating direct memory is slow and only the GC releases it.
+// At most maxIdle buffers are kept; when more uploads run at once, the extra buffers are dropped after use.
+final class DirectBufferPool {
+    private final int m_bufferBytes;
+    private final BlockingQueue<ByteBuffer> m_idle;
+
+    // Returns the buffer to the pool on close(); a Lease belongs to one upload
+    final class Lease implements AutoCloseable {
+        private ByteBuffer m_buffer;
+
+        private Lease(ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        ByteBuffer buffer() {
+            return m_buffer;
+        }
+
+        @Override
+        public void close() {
+            if (m_buffer != null) {
+                m_idle.offer(m_buffer.clear());
+                m_buffer = null;
+            }
+        }
+    }
+
+    DirectBufferPool(int bufferBytes, int maxIdle) {
+        m_bufferBytes = bufferBytes;
+        m_idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    Lease acquire() {
+        ByteBuffer buffer = m_idle.poll();
+        return new Lease(buffer != null ? buffer : ByteBuffer.allocateDirect(m_bufferBytes));
+    }
+
+    int idleCount() {
+        return m_idle.size();
+    }
+}
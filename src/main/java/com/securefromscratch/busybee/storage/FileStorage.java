@@ -2,25 +2,58 @@ package com.securefromscratch.busybee.storage;
 
 import com.securefromscratch.busybee.boxedpath.BoxedPath;
 import com.securefromscratch.busybee.boxedpath.PathSandbox;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
+// Singleton service: the sandbox, directories and quota ledger are set up once at startup
+@Service
 public class FileStorage {
     // Restrict file upload: allow specific extensions & mimetypes, verify magic bytes,
     // sandbox uploads, unique filenames, quota per user, disk space checks, and clear errors.
@@ -39,7 +72,9 @@ public class FileStorage {
     private static final int MAX_FILENAME_LENGTH = 80;
     private static final Pattern SAFE_FILENAME = Pattern.compile("^[a-zA-Z0-9._-]+$");
     private static final Pattern SAFE_USER_SEGMENT = Pattern.compile("^[a-zA-Z0-9_-]+$");
-    private static final int MAGIC_READ_LIMIT = 16;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    // idle copy buffers kept for the next uploads (1MB of direct memory at most)
+    private static final int MAX_IDLE_COPY_BUFFERS = 16;
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of(
             ".jpg",
             ".jpeg",
@@ -49,28 +84,87 @@ public class FileStorage {
             ".pdf"
     );
 
+    // SHA-256 of the stored content, kept next to the file as a user-defined attribute (best effort)
+    private static final String CONTENT_HASH_ATTRIBUTE = "busybee.sha256";
+    // not reachable through ImageName (which must start with a letter or digit) nor a sanitized user segment
+    private static final String BLOB_DIR = ".blobs";
+    private static final String BLOB_TEMP_DIR = "tmp";
+    // links to blobs held by UrlDownloadCache
+    private static final String URL_CACHE_DIR = "urls";
+    // downscaled copies of images, named <content sha256>-<width><ext>
+    private static final String THUMBNAIL_DIR = "thumbs";
+    public static final Set<Integer> THUMBNAIL_WIDTHS = Set.of(128, 512);
+    private static final int THUMBNAIL_WORKERS = 2;
+    // renders waiting for a worker; beyond this a thumbnail request is refused instead of queueing without bound
+    private static final int MAX_QUEUED_THUMBNAILS = 16;
+    private static final Duration THUMBNAIL_WAIT = Duration.ofSeconds(10);
+    private static final Pattern CONTENT_HASH = Pattern.compile("^[0-9a-f]{64}$");
+    private static final Pattern STORED_UPLOAD_NAME = Pattern.compile("^[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.[a-z]+$");
+
     private static final int UUID_LENGTH = UUID.randomUUID().toString().length();
 
     private final PathSandbox m_sandbox;
     private final BoxedPath m_storageRoot;
+    private final BoxedPath m_blobRoot;
+    private final UploadQuota m_quota;
+    private final DirectBufferPool m_copyBuffers = new DirectBufferPool(COPY_BUFFER_BYTES, MAX_IDLE_COPY_BUFFERS);
+    private final ExecutorService m_thumbnailWorkers = new ThreadPoolExecutor(THUMBNAIL_WORKERS, THUMBNAIL_WORKERS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_THUMBNAILS), r -> {
+                Thread t = new Thread(r, "thumbnail-render");
+                t.setDaemon(true);
+                return t;
+            });
+    // renders in progress, by (content hash, width); every request for one waits on the same render
+    private record ThumbnailKey(String hash, int width) {
+    }
+
+    private final Map<ThumbnailKey, CompletableFuture<BoxedPath>> m_thumbnailRenders = new ConcurrentHashMap<>();
+    private final AtomicLong m_thumbnailsRendered = new AtomicLong();
+
+    @Autowired
+    public FileStorage(@Value("${busybee.uploads.dir:uploads}") String storageDirectory) throws IOException {
+        this(Path.of(storageDirectory));
+    }
 
     public FileStorage(Path storageDirectory) throws IOException {
         Path normalizedRoot = storageDirectory.toAbsolutePath().normalize();
+        // the root comes from configuration, not from a request; create it before boxing it in
+        Files.createDirectories(normalizedRoot);
         m_sandbox = PathSandbox.boxroot(normalizedRoot);
         m_storageRoot = m_sandbox.getRoot();
-        Files.createDirectories(m_storageRoot);
+        // one level at a time: a sandboxed path can't create missing ancestors in a single call
+        m_blobRoot = m_storageRoot.resolve(BLOB_DIR);
+        Files.createDirectories(m_blobRoot);
+        Files.createDirectories(m_blobRoot.resolve(BLOB_TEMP_DIR));
+        Files.createDirectories(m_blobRoot.resolve(THUMBNAIL_DIR));
+        purgeTempFiles();
+        recordMissingContentHashes();
+        m_quota = UploadQuota.scan(m_storageRoot, MAX_FILES_PER_USER, MIN_FREE_BYTES, Set.of(BLOB_DIR));
+    }
+
+    @PreDestroy
+    public void close() {
+        m_thumbnailWorkers.shutdownNow();
+    }
+
+    // Path of a stored (or seeded) file under the storage root; the sandbox rejects anything that escapes it
+    public BoxedPath resolve(String storedRelativePath) {
+        return m_storageRoot.resolve(storedRelativePath);
+    }
+
+    // leftovers of uploads interrupted by a crash or restart
+    private void purgeTempFiles() throws IOException {
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(m_blobRoot.resolve(BLOB_TEMP_DIR))) {
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        }
     }
 
     /*public Path store(MultipartFile file) throws IOException {
         // write code to store a file and returns its path
     }*/
 
-    public byte[] getBytes(String filename) throws IOException {
-        Path filepath = m_storageRoot.resolve(filename);
-        byte[] serialized = Files.readAllBytes(filepath);
-        return serialized;
-    }
-
     public static FileType identifyType(MultipartFile file) {
         String contentType = file.getContentType();
         if (contentType == null) {
@@ -152,10 +246,8 @@ public class FileStorage {
             throw reject(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Unsupported file extension", username, baseName, sizeForLogs);
         }
 
-        String contentType = normalizeContentType(providedContentType);
-        if (contentType.isBlank()) {
-            contentType = inferContentTypeFromExtension(ext);
-        }
+        String normalizedContentType = normalizeContentType(providedContentType);
+        String contentType = normalizedContentType.isBlank() ? inferContentTypeFromExtension(ext) : normalizedContentType;
         if (contentType.isBlank()) {
             throw reject(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Missing content type", username, baseName, sizeForLogs);
         }
@@ -164,51 +256,69 @@ public class FileStorage {
         BoxedPath userDir = m_storageRoot.resolve(safeUserSegment);
         Files.createDirectories(userDir);
 
-        long fileCount = getFileCount(userDir);
-        if (fileCount >= MAX_FILES_PER_USER) {
-            throw reject(HttpStatus.TOO_MANY_REQUESTS, "Too many files for user", username, baseName, sizeForLogs);
+        if (knownSize > MAX_UPLOAD_BYTES) {
+            throw reject(HttpStatus.PAYLOAD_TOO_LARGE, "File too large", username, baseName, knownSize);
         }
 
         // If we don't know the final size (stream), reserve worst-case (MAX_UPLOAD_BYTES).
-        long minRequired = MIN_FREE_BYTES + (knownSize > 0 ? knownSize : MAX_UPLOAD_BYTES);
-        long freeBytes = Files.getFileStore(userDir).getUsableSpace();
-        if (freeBytes < minRequired) {
-            throw reject(HttpStatus.BAD_REQUEST, "Insufficient disk space", username, baseName, sizeForLogs);
-        }
-
-        if (knownSize > MAX_UPLOAD_BYTES) {
-            throw reject(HttpStatus.PAYLOAD_TOO_LARGE, "File too large", username, baseName, knownSize);
+        UploadQuota.Reservation reservation;
+        try {
+            reservation = m_quota.reserve(safeUserSegment, knownSize > 0 ? knownSize : MAX_UPLOAD_BYTES);
+        } catch (UploadQuota.QuotaExceededException ex) {
+            throw switch (ex.denial()) {
+                case TOO_MANY_FILES -> reject(HttpStatus.TOO_MANY_REQUESTS, "Too many files for user", username, baseName, sizeForLogs);
+                case INSUFFICIENT_SPACE -> reject(HttpStatus.BAD_REQUEST, "Insufficient disk space", username, baseName, sizeForLogs);
+            };
         }
 
         String storedName = UUID.randomUUID().toString() + ext;
         BoxedPath storedPath = userDir.resolve(storedName);
-
-        long totalWritten = 0;
-        try (InputStream buffered = new BufferedInputStream(in);
-             OutputStream out = Files.newOutputStream(storedPath, StandardOpenOption.CREATE_NEW)) {
-
-            byte[] header = buffered.readNBytes(MAGIC_READ_LIMIT);
-            if (header.length == 0) {
-                throw reject(HttpStatus.BAD_REQUEST, "Empty file", username, baseName, sizeForLogs);
-            }
-            MagicType magicType = detectMagicType(header, header.length);
-            validateType(contentType, ext, magicType, username, baseName, sizeForLogs);
-
-            out.write(header);
-            totalWritten += header.length;
-            if (totalWritten > MAX_UPLOAD_BYTES) {
-                throw reject(HttpStatus.PAYLOAD_TOO_LARGE, "File too large", username, baseName, sizeForLogs);
-            }
-
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = buffered.read(buffer)) != -1) {
-                totalWritten += read;
-                if (totalWritten > MAX_UPLOAD_BYTES) {
-                    throw reject(HttpStatus.PAYLOAD_TOO_LARGE, "File too large", username, baseName, sizeForLogs);
+        BoxedPath tempPath = m_blobRoot.resolve(BLOB_TEMP_DIR).resolve(UUID.randomUUID() + ".part");
+
+        // one pass over the bytes: the type is validated as soon as the header is in, the rest as it streams
+        UploadPipeline.SizeLimit sizeLimit = new UploadPipeline.SizeLimit(MAX_UPLOAD_BYTES);
+        UploadPipeline.Digest digest = new UploadPipeline.Digest(sha256());
+        UploadPipeline.ImageDimensions dimensions = new UploadPipeline.ImageDimensions(ImageDerivatives.MAX_SOURCE_PIXELS);
+        List<UploadPipeline.Stage> stages = new ArrayList<>(List.of(
+                new UploadPipeline.MagicBytes(magicType -> validateType(contentType, ext, magicType, username, baseName, sizeForLogs)),
+                sizeLimit,
+                digest));
+        if (!ext.equals(".pdf")) {
+            stages.add(dimensions);
+        }
+        UploadPipeline pipeline = new UploadPipeline(stages);
+
+        boolean deduplicated;
+        UploadQuota.Usage usage;
+        try (reservation) {
+            // opened through the sandbox provider, like every other access to the storage root
+            try (FileChannel out = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                 DirectBufferPool.Lease lease = m_copyBuffers.acquire()) {
+                // a FileInputStream's own channel reads straight into the direct buffer; other streams go through a small copy
+                ReadableByteChannel source = Channels.newChannel(in);
+                ByteBuffer buffer = lease.buffer();
+                long written = 0;
+                boolean eof = false;
+                while (!eof) {
+                    // fill the buffer first: one pass through the stages and one write per 64KB, not per read
+                    buffer.clear();
+                    while (buffer.hasRemaining() && !eof) {
+                        eof = source.read(buffer) < 0;
+                    }
+                    buffer.flip();
+                    pipeline.accept(buffer);
+                    while (buffer.hasRemaining()) {
+                        written += out.write(buffer, written);
+                    }
                 }
-                out.write(buffer, 0, read);
+                pipeline.finish();
+            } catch (UploadPipeline.RejectedException ex) {
+                throw reject(ex.status(), ex.getMessage(), username, baseName, sizeForLogs);
             }
+            String hash = HexFormat.of().formatHex(digest.digest());
+            writeContentHash(tempPath, hash);
+            deduplicated = publish(storedPath, tempPath, hash);
+            usage = reservation.commit(sizeLimit.total());
         } catch (ResponseStatusException ex) {
             Files.deleteIfExists(storedPath);
             throw ex;
@@ -216,12 +326,262 @@ public class FileStorage {
             Files.deleteIfExists(storedPath);
             LOGGER.warn("Upload failed: user={} filename={}", safeLogValue(username), safeLogValue(baseName), ex);
             throw ex;
+        } finally {
+            Files.deleteIfExists(tempPath);
         }
 
-        LOGGER.info("Upload stored: user={} filename={} stored={}", safeLogValue(username), safeLogValue(baseName), storedName);
+        LOGGER.info("Upload stored: user={} filename={} stored={} deduplicated={} dimensions={} userFiles={} userBytes={}",
+                safeLogValue(username), safeLogValue(baseName), storedName, deduplicated,
+                dimensions.dimensions().map(d -> d.width() + "x" + d.height()).orElse("-"), usage.files(), usage.bytes());
         return safeUserSegment + "/" + storedName;
     }
 
+    // Content-addressed layout: each distinct content is kept once, as .blobs/<2 hex>/<sha256>.
+    // A stored upload (<user>/<uuid>.<ext>) is a hard link to its blob, so readers still see a plain file
+    // and the blob's link count is its reference count. Returns true when an existing blob was reused.
+    private boolean publish(BoxedPath storedPath, BoxedPath tempPath, String hash) throws IOException {
+        BoxedPath blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            try {
+                Files.createLink(storedPath, blob);
+                return true;
+            } catch (NoSuchFileException ex) {
+                // last reference was released concurrently; publish this copy instead
+            }
+        }
+
+        try {
+            Files.createLink(storedPath, tempPath);
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            // no hard links here: keep the upload, just without deduplication
+            Files.move(tempPath, storedPath, StandardCopyOption.ATOMIC_MOVE);
+            return false;
+        }
+        try {
+            Files.createDirectories(blob.getParent());
+            // a rename; if an identical blob was published meanwhile it is replaced, and its links keep their content
+            Files.move(tempPath, blob, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // the upload itself is stored; only future deduplication against it is lost
+            LOGGER.warn("Blob publish failed: blob={}", hash, ex);
+        }
+        return false;
+    }
+
+    // Drops the blob once the only remaining link is its own name in the blob store
+    private void releaseBlob(String hash) {
+        BoxedPath blob = blobPath(hash);
+        try {
+            Object links = Files.getAttribute(blob, "unix:nlink");
+            if (links instanceof Integer count && count <= 1 && Files.deleteIfExists(blob)) {
+                for (int width : THUMBNAIL_WIDTHS) {
+                    for (ImageDerivatives.Format format : ImageDerivatives.Format.values()) {
+                        Files.deleteIfExists(thumbnailPath(hash, width, format));
+                    }
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // never published (no hard links) or already released
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException ex) {
+            // link counts unavailable: keep the blob rather than risk deleting shared content
+            LOGGER.debug("Blob release skipped: blob={}", hash);
+        }
+    }
+
+    // A width-pixel-wide copy of an image, made on first request and kept in the blob store under the original's
+    // content hash, so identical uploads share it and it goes away with their blob. Images that are already
+    // narrow enough, or have no derivative format (webp) or can't be decoded, come back as the original.
+    // Rendering runs on a small pool, once per (hash, width) however many requests want it at the same time;
+    // when the pool's queue is full, or the render takes too long, the request gets a 503.
+    public BoxedPath thumbnail(BoxedPath original, int width) throws IOException {
+        if (!THUMBNAIL_WIDTHS.contains(width)) {
+            throw new IllegalArgumentException("Unsupported thumbnail width: " + width);
+        }
+        Optional<ImageDerivatives.Format> format = ImageDerivatives.formatFor(original.getFileName().toString());
+        if (format.isEmpty()) {
+            return original;
+        }
+        String hash = contentHash(original);
+        BoxedPath thumbnail = thumbnailPath(hash, width, format.get());
+        if (Files.isRegularFile(thumbnail)) {
+            return thumbnail;
+        }
+
+        ThumbnailKey key = new ThumbnailKey(hash, width);
+        CompletableFuture<BoxedPath> render;
+        try {
+            render = m_thumbnailRenders.computeIfAbsent(key, k -> CompletableFuture.supplyAsync(() -> {
+                try {
+                    return renderThumbnail(original, format.get(), width, thumbnail);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, m_thumbnailWorkers));
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn("Thumbnail rejected (queue full): source={} width={}", safeLogValue(original.getFileName().toString()), width);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many thumbnails being made");
+        }
+        // once done (even before this line), the next request finds the file or starts over
+        render.whenComplete((result, ex) -> m_thumbnailRenders.remove(key, render));
+
+        try {
+            return render.get(THUMBNAIL_WAIT.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            // the render goes on; a later request will find its result
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Thumbnail not ready");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Thumbnail wait interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Thumbnail failed", ex.getCause());
+        }
+    }
+
+    private BoxedPath renderThumbnail(BoxedPath original, ImageDerivatives.Format format, int width, BoxedPath thumbnail) throws IOException {
+        // a render that finished while this one was queued
+        if (Files.isRegularFile(thumbnail)) {
+            return thumbnail;
+        }
+        BoxedPath tempPath = m_blobRoot.resolve(BLOB_TEMP_DIR).resolve(UUID.randomUUID() + ".part");
+        try {
+            if (!ImageDerivatives.writeThumbnail(original, format, width, tempPath)) {
+                return original;
+            }
+            // recorded now, so serving the thumbnail never has to hash it
+            writeContentHash(tempPath, computeContentHash(tempPath));
+            Files.move(tempPath, thumbnail, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        m_thumbnailsRendered.incrementAndGet();
+        LOGGER.debug("Thumbnail created: source={} width={}", safeLogValue(original.getFileName().toString()), width);
+        return thumbnail;
+    }
+
+    // thumbnails written since startup
+    long thumbnailsRendered() {
+        return m_thumbnailsRendered.get();
+    }
+
+    private BoxedPath thumbnailPath(String hash, int width, ImageDerivatives.Format format) {
+        return m_blobRoot.resolve(THUMBNAIL_DIR).resolve(hash + "-" + width + format.extension());
+    }
+
+    // Directory for UrlDownloadCache: inside the blob store, so its files are invisible to users and quotas
+    BoxedPath urlCacheDirectory() throws IOException {
+        BoxedPath dir = m_blobRoot.resolve(URL_CACHE_DIR);
+        Files.createDirectories(dir);
+        return dir;
+    }
+
+    // Another name for a stored upload's content (a hard link, so it shares the upload's blob), or a copy when
+    // hard links aren't available
+    void linkStoredUpload(String storedRelativePath, BoxedPath target) throws IOException {
+        BoxedPath storedPath = m_storageRoot.resolve(storedRelativePath);
+        try {
+            Files.createLink(target, storedPath);
+        } catch (UnsupportedOperationException | FileSystemException ex) {
+            Files.copy(storedPath, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    // Deletes a file created by linkStoredUpload, dropping the blob if that was its last other name
+    void releaseLinkedFile(BoxedPath file) throws IOException {
+        Optional<String> hash = readContentHash(file);
+        if (Files.deleteIfExists(file)) {
+            hash.ifPresent(this::releaseBlob);
+        }
+    }
+
+    private BoxedPath blobPath(String hash) {
+        return m_blobRoot.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    // Stored uploads get a fresh random name and are never rewritten, so their content never changes
+    public static boolean isImmutableUpload(Path path) {
+        return STORED_UPLOAD_NAME.matcher(path.getFileName().toString()).matches();
+    }
+
+    // Hex SHA-256 of a stored file: the hash recorded at upload time (or at startup, for seeded files) when
+    // available, otherwise computed by streaming the file once. Never writes, so serving a file doesn't modify it.
+    public static String contentHash(Path path) throws IOException {
+        Optional<String> recorded = readContentHash(path);
+        return recorded.isPresent() ? recorded.get() : computeContentHash(path);
+    }
+
+    private static String computeContentHash(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // Seeded files (and files from before hashes were recorded) get their hash here, once, instead of on first GET
+    private void recordMissingContentHashes() throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(m_storageRoot, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                String dirName = dir.getFileName().toString();
+                if (dirName.equals(BLOB_DIR)) {
+                    continue;
+                }
+                // directory streams hand out plain paths; go back through the sandbox for the files themselves
+                BoxedPath boxedDir = m_storageRoot.resolve(dirName);
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(boxedDir, Files::isRegularFile)) {
+                    for (Path file : files) {
+                        BoxedPath boxedFile = boxedDir.resolve(file.getFileName().toString());
+                        if (readContentHash(boxedFile).isEmpty()) {
+                            writeContentHash(boxedFile, computeContentHash(boxedFile));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static Optional<String> readContentHash(Path path) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view == null || !view.list().contains(CONTENT_HASH_ATTRIBUTE)) {
+                return Optional.empty();
+            }
+            ByteBuffer value = ByteBuffer.allocate(view.size(CONTENT_HASH_ATTRIBUTE));
+            view.read(CONTENT_HASH_ATTRIBUTE, value);
+            String hash = new String(value.array(), 0, value.position(), StandardCharsets.US_ASCII);
+            return CONTENT_HASH.matcher(hash).matches() ? Optional.of(hash) : Optional.empty();
+        } catch (IOException | UnsupportedOperationException | SecurityException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private static void writeContentHash(Path path, String hash) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(path, UserDefinedFileAttributeView.class);
+            if (view != null) {
+                view.write(CONTENT_HASH_ATTRIBUTE, ByteBuffer.wrap(hash.getBytes(StandardCharsets.US_ASCII)));
+            }
+        } catch (IOException | UnsupportedOperationException | SecurityException ex) {
+            // file systems without user attributes just recompute the hash on demand
+            LOGGER.debug("Content hash not recorded: path={}", safeLogValue(path.toString()));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 unavailable", ex);
+        }
+    }
+
     private static String inferContentTypeFromExtension(String ext) {
         return switch (ext) {
             case ".jpg", ".jpeg" -> "image/jpeg";
@@ -239,7 +599,15 @@ public class FileStorage {
         }
         try {
             BoxedPath storedPath = m_storageRoot.resolve(storedRelativePath);
-            Files.deleteIfExists(storedPath);
+            if (!Files.isRegularFile(storedPath)) {
+                return;
+            }
+            Optional<String> hash = readContentHash(storedPath);
+            long size = Files.size(storedPath);
+            if (Files.deleteIfExists(storedPath)) {
+                m_quota.removed(storedPath.getParent().getFileName().toString(), size);
+                hash.ifPresent(this::releaseBlob);
+            }
         } catch (Exception ex) {
             // Cleanup should never mask the original application error.
             LOGGER.warn("Upload cleanup failed: stored={}", safeLogValue(storedRelativePath), ex);
@@ -270,45 +638,6 @@ public class FileStorage {
         return sanitized.isBlank() ? "user" : sanitized;
     }
 
-    private enum MagicType { JPG, PNG, GIF, WEBP, PDF, UNKNOWN }
-
-    private static MagicType detectMagicType(byte[] header, int len) {
-        if (len >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
-            return MagicType.JPG;
-        }
-        if (len >= 8
-                && (header[0] & 0xFF) == 0x89
-                && header[1] == 0x50
-                && header[2] == 0x4E
-                && header[3] == 0x47
-                && header[4] == 0x0D
-                && header[5] == 0x0A
-                && header[6] == 0x1A
-                && header[7] == 0x0A) {
-            return MagicType.PNG;
-        }
-        if (len >= 6) {
-            String sig = new String(header, 0, 6);
-            if ("GIF87a".equals(sig) || "GIF89a".equals(sig)) {
-                return MagicType.GIF;
-            }
-        }
-        if (len >= 12) {
-            String riff = new String(header, 0, 4);
-            String webp = new String(header, 8, 4);
-            if ("RIFF".equals(riff) && "WEBP".equals(webp)) {
-                return MagicType.WEBP;
-            }
-        }
-        if (len >= 5) {
-            String sig = new String(header, 0, 5);
-            if ("%PDF-".equals(sig)) {
-                return MagicType.PDF;
-            }
-        }
-        return MagicType.UNKNOWN;
-    }
-
     private ResponseStatusException reject(HttpStatus status, String reason, String username, String filename, long size) {
         LOGGER.warn(
                 "Upload rejected: status={} reason={} user={} filename={} size={}",
@@ -335,13 +664,7 @@ public class FileStorage {
         return sanitized;
     }
 
-    private static long getFileCount(Path userDir) throws IOException {
-        try (Stream<Path> files = Files.list(userDir)) {
-            return files.filter(Files::isRegularFile).count();
-        }
-    }
-
-    private void validateType(String contentType, String ext, MagicType magicType, String username, String filename, long size) {
+    private void validateType(String contentType, String ext, UploadPipeline.MagicType magicType, String username, String filename, long size) {
         switch (magicType) {
             case JPG -> {
                 if (!contentType.startsWith("image/")) {
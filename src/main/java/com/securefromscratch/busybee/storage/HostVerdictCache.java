@@ -0,0 +1,95 @@
+package com.securefromscratch.busybee.storage;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// SSRF verdicts for URL download hosts: the resolved addresses together with whether all of them are public.
+// Entries live for a short TTL (failed lookups for less), so repeated URLs from the same host skip the DNS lookup,
+// and the addresses that were checked are the ones UrlImageDownloader pins for the connection.
+final class HostVerdictCache {
+    static final Duration TTL = Duration.ofSeconds(30);
+    static final Duration UNRESOLVED_TTL = Duration.ofSeconds(5);
+    private static final int MAX_HOSTS = 1024;
+
+    interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    enum Outcome { PUBLIC, BLOCKED, UNRESOLVED }
+
+    // addresses is empty for UNRESOLVED; blockedAddress is the first non-public address of a BLOCKED host
+    record Verdict(Outcome outcome, List<InetAddress> addresses, Optional<InetAddress> blockedAddress) {
+    }
+
+    private record Cached(Verdict verdict, long expiresAtNanos) {
+    }
+
+    private final Resolver m_resolver;
+    private final LongSupplier m_nanoTime;
+    private final Map<String, Cached> m_verdicts = new ConcurrentHashMap<>();
+
+    HostVerdictCache() {
+        this(InetAddress::getAllByName, System::nanoTime);
+    }
+
+    HostVerdictCache(Resolver resolver, LongSupplier nanoTime) {
+        m_resolver = resolver;
+        m_nanoTime = nanoTime;
+    }
+
+    Verdict verdictFor(String host) {
+        String key = host.toLowerCase(Locale.ROOT);
+        long now = m_nanoTime.getAsLong();
+        Cached cached = m_verdicts.get(key);
+        if (cached != null && now - cached.expiresAtNanos() < 0) {
+            return cached.verdict();
+        }
+
+        // concurrent misses for one host may both resolve; either result is a valid verdict
+        Verdict verdict = resolve(key);
+        Duration ttl = (verdict.outcome() == Outcome.UNRESOLVED) ? UNRESOLVED_TTL : TTL;
+        if (m_verdicts.size() >= MAX_HOSTS) {
+            m_verdicts.values().removeIf(c -> now - c.expiresAtNanos() >= 0);
+            if (m_verdicts.size() >= MAX_HOSTS) {
+                m_verdicts.clear();
+            }
+        }
+        m_verdicts.put(key, new Cached(verdict, now + ttl.toNanos()));
+        return verdict;
+    }
+
+    private Verdict resolve(String host) {
+        InetAddress[] resolved;
+        try {
+            resolved = m_resolver.resolve(host);
+        } catch (UnknownHostException ex) {
+            return new Verdict(Outcome.UNRESOLVED, List.of(), Optional.empty());
+        }
+        if (resolved == null || resolved.length == 0) {
+            return new Verdict(Outcome.UNRESOLVED, List.of(), Optional.empty());
+        }
+        List<InetAddress> addresses = List.of(resolved);
+        for (InetAddress addr : addresses) {
+            if (!isPublicAddress(addr)) {
+                return new Verdict(Outcome.BLOCKED, addresses, Optional.of(addr));
+            }
+        }
+        return new Verdict(Outcome.PUBLIC, addresses, Optional.empty());
+    }
+
+    static boolean isPublicAddress(InetAddress addr) {
+        // Defense-in-depth: block all special/private ranges (IPv4+IPv6)
+        return !(addr.isAnyLocalAddress()
+                || addr.isLoopbackAddress()
+                || addr.isLinkLocalAddress()
+                || addr.isSiteLocalAddress()
+                || addr.isMulticastAddress());
+    }
+}
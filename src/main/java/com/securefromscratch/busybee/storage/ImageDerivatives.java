@@ -0,0 +1,171 @@
+package com.securefromscratch.busybee.storage;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Optional;
+
+// Downscaled copies of uploaded images (javax.imageio, no native code).
+// The dimensions the file declares are read first (UploadPipeline.ImageDimensions), without handing the file to a
+// decoder; a file that declares none, or too many pixels, gets no thumbnail. The rest is decoded with subsampling
+// chosen from those dimensions, so the decoded bitmap stays under MAX_DECODED_PIXELS whatever the source size.
+// Streams are memory-cached: ImageIO's default file cache would write temp files outside the sandbox.
+final class ImageDerivatives {
+    // beyond this the header is lying or the image is a decompression bomb; uploads are rejected (UploadPipeline),
+    // seeded files are served as they are
+    static final long MAX_SOURCE_PIXELS = 64L * 1024 * 1024;
+    // largest bitmap decoded or drawn for one thumbnail (16MB as ARGB)
+    private static final long MAX_DECODED_PIXELS = 4L * 1024 * 1024;
+    // JPEG metadata segments come before the frame header; a file that hasn't declared its size by then won't
+    private static final int MAX_HEADER_SCAN_BYTES = 256 * 1024;
+    private static final int HEADER_READ_BYTES = 8 * 1024;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    enum Format {
+        JPEG("jpeg", ".jpg", BufferedImage.TYPE_INT_RGB),
+        PNG("png", ".png", BufferedImage.TYPE_INT_ARGB);
+
+        private final String m_formatName;
+        private final String m_extension;
+        private final int m_imageType;
+
+        Format(String formatName, String extension, int imageType) {
+            m_formatName = formatName;
+            m_extension = extension;
+            m_imageType = imageType;
+        }
+
+        String extension() {
+            return m_extension;
+        }
+    }
+
+    private ImageDerivatives() {
+    }
+
+    // JPEG stays JPEG; PNG and GIF (transparency) become PNG; anything else has no derivatives
+    static Optional<Format> formatFor(String filename) {
+        String name = filename.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return Optional.of(Format.JPEG);
+        }
+        if (name.endsWith(".png") || name.endsWith(".gif")) {
+            return Optional.of(Format.PNG);
+        }
+        return Optional.empty();
+    }
+
+    // Writes a width-pixel-wide copy of source to target (which must not exist).
+    // Returns false, writing nothing, if the source is no wider than that, doesn't declare acceptable dimensions or
+    // can't be decoded.
+    static boolean writeThumbnail(Path source, Format format, int width, Path target) throws IOException {
+        Optional<UploadPipeline.ImageDimensions.Dimensions> declared = declaredDimensions(source);
+        if (declared.isEmpty() || declared.get().width() <= width) {
+            return false;
+        }
+        int sourceWidth = declared.get().width();
+        int sourceHeight = declared.get().height();
+        int height = Math.max(1, (int) Math.round((double) sourceHeight * width / sourceWidth));
+        if ((long) width * height > MAX_DECODED_PIXELS) {
+            // a very tall strip: even the thumbnail would be huge
+            return false;
+        }
+
+        BufferedImage decoded;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
+             ImageInputStream imageIn = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+            if (!readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageIn, true, true);
+                if (reader.getWidth(0) > sourceWidth || reader.getHeight(0) > sourceHeight) {
+                    // the decoder found a bigger image than the header declared; decode neither
+                    return false;
+                }
+                int subsampling = subsampling(sourceWidth, sourceHeight, width);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                decoded = reader.read(0, param);
+            } catch (IOException | RuntimeException ex) {
+                // unsupported variant (e.g. CMYK JPEG) or a damaged file: the original is served instead
+                return false;
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        BufferedImage scaled = new BufferedImage(width, height, format.m_imageType);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(decoded, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format.m_formatName).next();
+        try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW);
+             ImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == Format.JPEG) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+            }
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(scaled, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return true;
+    }
+
+    // Width and height from the file's header, if it declares them and they are within MAX_SOURCE_PIXELS
+    static Optional<UploadPipeline.ImageDimensions.Dimensions> declaredDimensions(Path source) throws IOException {
+        UploadPipeline.ImageDimensions dimensions = new UploadPipeline.ImageDimensions(MAX_SOURCE_PIXELS);
+        byte[] chunk = new byte[HEADER_READ_BYTES];
+        try (InputStream in = Files.newInputStream(source)) {
+            int scanned = 0;
+            int n;
+            while (dimensions.dimensions().isEmpty() && scanned < MAX_HEADER_SCAN_BYTES && (n = in.read(chunk)) > 0) {
+                dimensions.accept(ByteBuffer.wrap(chunk, 0, n));
+                scanned += n;
+            }
+            dimensions.finish();
+        } catch (UploadPipeline.RejectedException ex) {
+            return Optional.empty();
+        }
+        return dimensions.dimensions();
+    }
+
+    // Decode at no less than twice the target width, then scale smoothly the rest of the way; but subsample more
+    // if that would still decode over MAX_DECODED_PIXELS (a narrow, very tall source)
+    private static int subsampling(int sourceWidth, int sourceHeight, int width) {
+        int forWidth = Math.max(1, sourceWidth / (width * 2));
+        int forPixels = (int) Math.ceil(Math.sqrt((double) sourceWidth * sourceHeight / MAX_DECODED_PIXELS));
+        return Math.max(forWidth, forPixels);
+    }
+}
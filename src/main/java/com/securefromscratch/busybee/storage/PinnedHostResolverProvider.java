@@ -0,0 +1,91 @@
+package com.securefromscratch.busybee.storage;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Host name resolver that answers with pinned addresses while a URL download is using the host.
+// UrlImageDownloader validates the addresses of a host (SSRF checks) and pins them for the duration of the
+// download, so the HTTP client's own lookup can't be answered with a different (e.g. internal) address by a
+// DNS server that changes its answer between the check and the connect. Every other lookup goes to the JDK's
+// built-in resolver unchanged.
+// NOTE: public access required for instantiation by Java's service loader
+public class PinnedHostResolverProvider extends InetAddressResolverProvider {
+    private record Pin(List<InetAddress> addresses, int users) {
+    }
+
+    private static final Map<String, Pin> PINNED = new ConcurrentHashMap<>();
+    private static volatile boolean s_installed;
+
+    // Released by close(); concurrent downloads from one host share the first validated set
+    static final class PinnedHost implements AutoCloseable {
+        private final String m_host;
+        private boolean m_closed;
+
+        private PinnedHost(String host) {
+            m_host = host;
+        }
+
+        @Override
+        public void close() {
+            if (!m_closed) {
+                m_closed = true;
+                PINNED.computeIfPresent(m_host, (k, pin) -> pin.users() <= 1 ? null : new Pin(pin.addresses(), pin.users() - 1));
+            }
+        }
+    }
+
+    static PinnedHost pin(String host, List<InetAddress> validatedAddresses) {
+        String key = host.toLowerCase(Locale.ROOT);
+        PINNED.merge(key, new Pin(List.copyOf(validatedAddresses), 1),
+                (existing, added) -> new Pin(existing.addresses(), existing.users() + 1));
+        return new PinnedHost(key);
+    }
+
+    // false when the service loader didn't pick this provider up (then lookups aren't pinned)
+    static boolean isInstalled() {
+        return s_installed;
+    }
+
+    @Override
+    public InetAddressResolver get(Configuration configuration) {
+        s_installed = true;
+        InetAddressResolver builtin = configuration.builtinResolver();
+        return new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+                Pin pin = PINNED.get(host.toLowerCase(Locale.ROOT));
+                if (pin == null) {
+                    return builtin.lookupByName(host, lookupPolicy);
+                }
+                int characteristics = lookupPolicy.characteristics();
+                List<InetAddress> allowed = pin.addresses().stream()
+                        .filter(a -> (a instanceof Inet4Address && (characteristics & LookupPolicy.IPV4) != 0)
+                                || (a instanceof Inet6Address && (characteristics & LookupPolicy.IPV6) != 0))
+                        .toList();
+                if (allowed.isEmpty()) {
+                    throw new UnknownHostException(host);
+                }
+                return allowed.stream();
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                return builtin.lookupByAddress(addr);
+            }
+        };
+    }
+
+    @Override
+    public String name() {
+        return "busybee-pinned-hosts";
+    }
+}
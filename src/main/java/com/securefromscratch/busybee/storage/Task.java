@@ -138,6 +138,34 @@ public final class Task {
         );
     }
 
+    // A copy that later comment changes to this task don't reach (comments themselves are immutable).
+    // Take it while holding the lock the comments are changed under.
+    Task snapshot() {
+        Task copy = new Task(m_taskid, m_name, m_desc, m_dueDate, m_hasDueTime, dueTime, m_createdBy, m_responsibilityOf, m_creationDatetime, m_done);
+        copy.m_comments.addAll(m_comments);
+        return copy;
+    }
+
+    // Rebuilds a task exactly as it was recorded (same id, creation time and done state). Used by journal replay.
+    static Task restore(
+            UUID taskid,
+            String name,
+            String desc,
+            Optional<LocalDate> dueDate,
+            Optional<LocalTime> dueTime,
+            String createdBy,
+            String[] responsibilityOf,
+            LocalDateTime creationDatetime,
+            boolean done
+    ) {
+        return new Task(taskid, name, desc,
+                dueDate.orElse(LocalDate.MAX),
+                dueTime.isPresent(),
+                dueTime.orElse(LocalTime.MIN),
+                createdBy, responsibilityOf, creationDatetime, done
+        );
+    }
+
     public UUID taskid() { return m_taskid; }
     public String name() { return m_name; }
     public String desc() { return m_desc; }
@@ -171,6 +199,28 @@ public final class Task {
         return addComment((indent)->new TaskComment(text, image, attachment, createdBy, createdOn, indent), after);
     }
 
+    UUID addCommentAwaitingFile(String text, String createdBy, Optional<UUID> after) {
+        return addComment((indent)->new TaskComment(UUID.randomUUID(), text, Optional.empty(), Optional.empty(), indent, createdBy, LocalDateTime.now(), TaskComment.FetchState.PENDING), after);
+    }
+
+    // Swaps in a new version of an existing comment (same id, same position); returns the previous version
+    TaskComment replaceComment(TaskComment updated) {
+        int commentIdx = findCommentIdx(updated.commentId());
+        if (commentIdx == -1) {
+            throw new CommentNotFoundException(m_taskid, updated.commentId());
+        }
+        return m_comments.set(commentIdx, updated);
+    }
+
+    // Re-inserts a recorded comment at its recorded position. Used by journal replay.
+    void insertComment(int index, TaskComment c) {
+        m_comments.add(Math.min(index, m_comments.size()), c);
+    }
+
+    int indexOfComment(UUID id) {
+        return findCommentIdx(id);
+    }
+
     private int findCommentIdx(UUID id) {
         OptionalInt indexOpt = IntStream.range(0, m_comments.size())
                 .filter(i -> m_comments.get(i).commentId().equals(id))
@@ -197,12 +247,14 @@ public final class Task {
         return c.commentId();
     }
 
-    public void removeComment(UUID commentId) {
+    // Callers should go through TasksStorage.removeComment so the removal is journaled and indexed
+    public TaskComment removeComment(UUID commentId) {
         int commentIdx = findCommentIdx(commentId);
         if (commentIdx == -1) {
             throw new CommentNotFoundException(m_taskid, commentId);
         }
         TaskComment old = m_comments.remove(commentIdx);
         assert(old != null); // must succeed
+        return old;
     }
 }
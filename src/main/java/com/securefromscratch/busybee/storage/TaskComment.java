@@ -5,6 +5,10 @@ import java.util.Optional;
 import java.util.UUID;
 
 public class TaskComment {
+    // For a file fetched from a URL after the comment was posted: PENDING until the download ends, FAILED if it
+    // didn't produce a file. NONE for every other comment, and for a fetched one once its file is set.
+    public enum FetchState { NONE, PENDING, FAILED }
+
     private enum AttachedFileType { NONE, IMAGE, ATTACHMENT }
     private final UUID commentid;
     private final String text;
@@ -13,6 +17,7 @@ public class TaskComment {
     private final String createdBy;
     private final LocalDateTime createdOn;
     private final int indent;
+    private final FetchState fetchState;
 
     public TaskComment(String text, String createdBy, int indent) {
         this(UUID.randomUUID(), text, Optional.empty(), Optional.empty(), indent, createdBy, LocalDateTime.now());
@@ -30,7 +35,11 @@ public class TaskComment {
         this(UUID.randomUUID(), text, image, attachment, indent, createdBy, createdOn);
     }
 
-    private TaskComment(UUID commentid, String text, Optional<String> image, Optional<String> attachment, int indent, String createdBy, LocalDateTime createdOn) {
+    TaskComment(UUID commentid, String text, Optional<String> image, Optional<String> attachment, int indent, String createdBy, LocalDateTime createdOn) {
+        this(commentid, text, image, attachment, indent, createdBy, createdOn, FetchState.NONE);
+    }
+
+    TaskComment(UUID commentid, String text, Optional<String> image, Optional<String> attachment, int indent, String createdBy, LocalDateTime createdOn, FetchState fetchState) {
         this.commentid = commentid;
         this.text = text;
 
@@ -49,6 +58,12 @@ public class TaskComment {
         this.indent = indent;
         this.createdBy = createdBy;
         this.createdOn = createdOn;
+        this.fetchState = fetchState;
+    }
+
+    // Same comment (id, text, position) with its fetched file or fetch state replaced
+    TaskComment withFetchedFile(Optional<String> image, Optional<String> attachment, FetchState newState) {
+        return new TaskComment(commentid, text, image, attachment, indent, createdBy, createdOn, newState);
     }
 
     public UUID commentId() { return commentid; }
@@ -56,6 +71,7 @@ public class TaskComment {
     public String createdBy() { return createdBy; }
     public LocalDateTime createdOn() { return createdOn; }
     public int indent() { return indent; }
+    public FetchState fetchState() { return fetchState; }
 
     public Optional<String> image() {
         return (attachedFileType == AttachedFileType.IMAGE)
@@ -0,0 +1,8 @@
+package com.securefromscratch.busybee.storage;
+
+// Published by TasksStorage once a change is durable. revision is the task's revision after the change,
+// so a subscriber that missed events can catch up through TasksStorage.changedSince.
+// task is a snapshot taken together with that revision; later changes to the task don't show in it.
+public record TaskEvent(Type type, Task task, long revision) {
+    public enum Type { TASK_CREATED, TASK_DONE, COMMENT_ADDED, COMMENT_UPDATED }
+}
@@ -0,0 +1,86 @@
+package com.securefromscratch.busybee.storage;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Optional;
+import java.util.UUID;
+
+// A single change to the tasks collection, as recorded in the journal.
+// Records carry everything needed to rebuild the exact same state on replay (ids, timestamps, comment positions),
+// so replaying a snapshot followed by the log tail is deterministic.
+sealed interface TaskMutation {
+    UUID taskid();
+
+    record TaskAdded(
+            UUID taskid,
+            String name,
+            String desc,
+            Optional<LocalDate> dueDate,
+            Optional<LocalTime> dueTime,
+            String createdBy,
+            String[] responsibilityOf,
+            LocalDateTime creationDatetime,
+            boolean done
+    ) implements TaskMutation {
+        static TaskAdded of(Task t) {
+            return new TaskAdded(
+                    t.taskid(), t.name(), t.desc(),
+                    t.dueDate(), t.dueTime(), t.createdBy(),
+                    t.responsibilityOf(), t.creationDatetime(), t.done()
+            );
+        }
+
+        Task toTask() {
+            return Task.restore(taskid, name, desc, dueDate, dueTime, createdBy, responsibilityOf, creationDatetime, done);
+        }
+    }
+
+    record TaskDone(UUID taskid) implements TaskMutation { }
+
+    // index/indent are the comment's final position in the thread (not the "reply to" id),
+    // so snapshots can re-insert comments in display order without re-running the threading logic.
+    record CommentAdded(
+            UUID taskid,
+            UUID commentid,
+            String text,
+            Optional<String> image,
+            Optional<String> attachment,
+            String createdBy,
+            LocalDateTime createdOn,
+            int index,
+            int indent
+    ) implements TaskMutation {
+        static CommentAdded of(Task t, int index) {
+            TaskComment c = t.comments().get(index);
+            return new CommentAdded(
+                    t.taskid(), c.commentId(), c.text(),
+                    c.image(), c.attachment(), c.createdBy(),
+                    c.createdOn(), index, c.indent()
+            );
+        }
+
+        TaskComment toComment() {
+            return new TaskComment(commentid, text, image, attachment, indent, createdBy, createdOn);
+        }
+    }
+
+    record CommentRemoved(UUID taskid, UUID commentid) implements TaskMutation { }
+
+    // The file (or fetch state) of a comment whose image is fetched from a URL in the background
+    record CommentFileSet(
+            UUID taskid,
+            UUID commentid,
+            Optional<String> image,
+            Optional<String> attachment,
+            TaskComment.FetchState fetchState
+    ) implements TaskMutation {
+        static CommentFileSet of(UUID taskid, TaskComment c) {
+            return new CommentFileSet(taskid, c.commentId(), c.image(), c.attachment(), c.fetchState());
+        }
+
+        TaskComment applyTo(TaskComment c) {
+            return c.withFetchedFile(image, attachment, fetchState);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.securefromscratch.busybee.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+// Filtering + keyset pagination over a set of tasks.
+// The cursor is opaque to clients: it encodes the sort key and id of the last task of the previous page,
+// so a page is "everything strictly after the cursor" and stays stable while new tasks are added.
+public record TaskQuery(
+        Order order,
+        Optional<Boolean> done,
+        Optional<LocalDate> dueBefore,
+        Optional<String> createdBy,
+        Optional<String> cursor,
+        int limit
+) {
+    public enum Order { CREATED, DUE }
+
+    public record Page(List<Task> tasks, Optional<String> nextCursor) { }
+
+    public TaskQuery {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit: must be positive");
+        }
+    }
+
+    public Page apply(Collection<Task> candidates) {
+        Optional<Key> after = cursor.map(this::decodeCursor);
+        Comparator<Key> keyOrder = Comparator.comparing(Key::sortKey).thenComparing(Key::taskid);
+
+        List<Task> matching = new ArrayList<>();
+        for (Task t : candidates) {
+            if (matches(t) && (after.isEmpty() || keyOrder.compare(keyOf(t), after.get()) > 0)) {
+                matching.add(t);
+            }
+        }
+        matching.sort((a, b) -> keyOrder.compare(keyOf(a), keyOf(b)));
+
+        if (matching.size() <= limit) {
+            return new Page(List.copyOf(matching), Optional.empty());
+        }
+        List<Task> page = List.copyOf(matching.subList(0, limit));
+        return new Page(page, Optional.of(encodeCursor(keyOf(page.get(page.size() - 1)))));
+    }
+
+    private boolean matches(Task t) {
+        if (done.isPresent() && t.done() != done.get()) {
+            return false;
+        }
+        if (dueBefore.isPresent() && (t.dueDate().isEmpty() || !t.dueDate().get().isBefore(dueBefore.get()))) {
+            return false;
+        }
+        return createdBy.isEmpty() || createdBy.get().equals(t.createdBy());
+    }
+
+    private record Key(LocalDateTime sortKey, UUID taskid) { }
+
+    private Key keyOf(Task t) {
+        LocalDateTime sortKey = switch (order) {
+            case CREATED -> t.creationDatetime();
+            // tasks without a due date sort last
+            case DUE -> LocalDateTime.of(t.dueDate().orElse(LocalDate.MAX), t.dueTime().orElse(LocalTime.MIN));
+        };
+        return new Key(sortKey, t.taskid());
+    }
+
+    private String encodeCursor(Key key) {
+        String raw = order.name() + "|" + key.sortKey() + "|" + key.taskid();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Key decodeCursor(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|");
+            if (parts.length != 3 || !parts[0].equals(order.name())) {
+                throw new IllegalArgumentException("cursor: invalid");
+            }
+            return new Key(LocalDateTime.parse(parts[1]), UUID.fromString(parts[2]));
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("cursor: invalid");
+        } catch (IllegalArgumentException ex) {
+            // Base64/UUID errors carry details about the input; don't echo them back
+            throw new IllegalArgumentException("cursor: invalid");
+        }
+    }
+}
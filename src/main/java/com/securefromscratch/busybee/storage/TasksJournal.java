@@ -0,0 +1,526 @@
+package com.securefromscratch.busybee.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead log of TaskMutation records, plus periodically compacted snapshots.
+//
+// Layout of the journal directory:
+//   tasks-<segment>.snapshot - the full state at the start of <segment> (written to a temp file, then atomically renamed)
+//   tasks-<segment>.wal      - every mutation applied after that snapshot
+// Recovery loads the newest snapshot and replays all log segments from that segment onwards.
+//
+// Each record is framed as [int payload length][int crc32 of payload][payload].
+// A short or corrupt record is treated as a torn write from a crash and ends the replay.
+//
+// Appends are group-committed: callers only encode and enqueue, a single writer thread drains whatever
+// is queued, writes it with one gathering write and fsyncs once for the whole batch.
+final class TasksJournal implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TasksJournal.class);
+
+    static final int DEFAULT_COMPACT_AFTER_RECORDS = 1000;
+    private static final int MAX_BATCH = 512;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final Pattern SEGMENT_FILE = Pattern.compile("^tasks-(\\d+)\\.(wal|snapshot)$");
+    private static final String WAL_SUFFIX = ".wal";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private static final byte TASK_ADDED = 1;
+    private static final byte TASK_DONE = 2;
+    private static final byte COMMENT_ADDED = 3;
+    private static final byte COMMENT_REMOVED = 4;
+    private static final byte COMMENT_FILE_SET = 5;
+
+    // frame == null marks a control entry: rotate (snapshotState != null) or close (snapshotState == null)
+    private record PendingWrite(byte[] frame, List<TaskMutation> snapshotState, CompletableFuture<Void> done) { }
+
+    private final Path m_dir;
+    private final int m_compactAfterRecords;
+    private final BlockingQueue<PendingWrite> m_queue = new LinkedBlockingQueue<>();
+    private final ExecutorService m_snapshotWriter = Executors.newSingleThreadExecutor(daemonThreadFactory("tasks-journal-snapshot"));
+    private final AtomicLong m_recordsSinceSnapshot = new AtomicLong();
+    private Thread m_writer;
+    private volatile boolean m_closed;
+
+    // owned by the writer thread once start() returns
+    private long m_segment;
+    private FileChannel m_wal;
+
+    TasksJournal(Path dir) {
+        this(dir, DEFAULT_COMPACT_AFTER_RECORDS);
+    }
+
+    TasksJournal(Path dir, int compactAfterRecords) {
+        m_dir = dir;
+        m_compactAfterRecords = compactAfterRecords;
+    }
+
+    // Reads the newest snapshot and the log tail after it, in the order they must be re-applied.
+    List<TaskMutation> recover() throws IOException {
+        Files.createDirectories(m_dir);
+        TreeMap<Long, Path> wals = new TreeMap<>();
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        try (Stream<Path> files = Files.list(m_dir)) {
+            files.forEach(file -> {
+                Matcher m = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    (m.group(2).equals("wal") ? wals : snapshots).put(Long.parseLong(m.group(1)), file);
+                }
+            });
+        }
+
+        m_segment = Math.max(wals.isEmpty() ? 0 : wals.lastKey(), snapshots.isEmpty() ? 0 : snapshots.lastKey());
+
+        List<TaskMutation> mutations = new ArrayList<>();
+        long baseSegment = 0;
+        if (!snapshots.isEmpty()) {
+            baseSegment = snapshots.lastKey();
+            if (!readRecords(snapshots.lastEntry().getValue(), mutations)) {
+                // snapshots are fsync'ed before the atomic rename, so this is real damage and not a torn write
+                throw new IOException("Tasks snapshot is corrupt: segment=" + baseSegment);
+            }
+        }
+        int snapshotRecords = mutations.size();
+        for (Map.Entry<Long, Path> wal : wals.tailMap(baseSegment, true).entrySet()) {
+            if (!readRecords(wal.getValue(), mutations)) {
+                LOGGER.warn("Tasks journal has a torn tail, replay stopped: segment={}", wal.getKey());
+                break;
+            }
+        }
+        LOGGER.info("Tasks journal recovered: snapshotRecords={} logRecords={}", snapshotRecords, mutations.size() - snapshotRecords);
+        return mutations;
+    }
+
+    // Writes a fresh snapshot of the recovered state into a new segment, drops the older segments
+    // and starts accepting appends.
+    void start(List<TaskMutation> state) throws IOException {
+        long segment = m_segment + 1;
+        writeSnapshot(segment, state);
+        m_wal = openWal(segment);
+        m_segment = segment;
+        m_writer = daemonThreadFactory("tasks-journal-writer").newThread(this::writeLoop);
+        m_writer.start();
+    }
+
+    // Must be called in the same order the mutations were applied in memory.
+    CompletableFuture<Void> append(TaskMutation mutation) {
+        if (m_closed) {
+            return CompletableFuture.failedFuture(new IOException("Tasks journal is closed"));
+        }
+        byte[] frame;
+        try {
+            frame = encode(mutation);
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        m_queue.add(new PendingWrite(frame, null, done));
+        m_recordsSinceSnapshot.incrementAndGet();
+        return done;
+    }
+
+    boolean compactionDue() {
+        return m_recordsSinceSnapshot.get() >= m_compactAfterRecords;
+    }
+
+    // Switches to a new log segment and writes the given state as its snapshot in the background.
+    // The state must reflect exactly the mutations appended so far.
+    void compact(List<TaskMutation> state) {
+        if (m_closed) {
+            return;
+        }
+        m_recordsSinceSnapshot.set(0);
+        m_queue.add(new PendingWrite(null, List.copyOf(state), new CompletableFuture<>()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        if (m_writer != null) {
+            m_queue.add(new PendingWrite(null, null, new CompletableFuture<>()));
+            try {
+                m_writer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // appends that raced with close() were never written
+        for (PendingWrite w; (w = m_queue.poll()) != null; ) {
+            w.done().completeExceptionally(new IOException("Tasks journal is closed"));
+        }
+        m_snapshotWriter.shutdown();
+        try {
+            if (!m_snapshotWriter.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("Tasks journal snapshot still running at shutdown");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (m_wal != null) {
+            m_wal.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(m_queue.take());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            m_queue.drainTo(batch, MAX_BATCH - 1);
+            closing = processBatch(batch);
+            batch.clear();
+        }
+    }
+
+    // returns true once the close marker was reached
+    private boolean processBatch(List<PendingWrite> batch) {
+        int from = 0;
+        for (int i = 0; i < batch.size(); ++i) {
+            PendingWrite w = batch.get(i);
+            if (w.frame() != null) {
+                continue;
+            }
+            commit(batch.subList(from, i));
+            from = i + 1;
+            if (w.snapshotState() == null) {
+                w.done().complete(null);
+                return true;
+            }
+            rotate(w.snapshotState());
+        }
+        commit(batch.subList(from, batch.size()));
+        return false;
+    }
+
+    private void commit(List<PendingWrite> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[writes.size()];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = ByteBuffer.wrap(writes.get(i).frame());
+            remaining += buffers[i].remaining();
+        }
+        try {
+            while (remaining > 0) {
+                remaining -= m_wal.write(buffers);
+            }
+            m_wal.force(false);
+            writes.forEach(w -> w.done().complete(null));
+        } catch (IOException ex) {
+            LOGGER.error("Tasks journal write failed: segment={} records={}", m_segment, writes.size(), ex);
+            writes.forEach(w -> w.done().completeExceptionally(ex));
+        }
+    }
+
+    private void rotate(List<TaskMutation> state) {
+        long segment = m_segment + 1;
+        try {
+            FileChannel newWal = openWal(segment);
+            m_wal.close();
+            m_wal = newWal;
+            m_segment = segment;
+        } catch (IOException ex) {
+            // keep appending to the current segment; the next compaction will try again
+            LOGGER.warn("Tasks journal rotation failed: segment={}", segment, ex);
+            return;
+        }
+        m_snapshotWriter.execute(() -> {
+            try {
+                writeSnapshot(segment, state);
+            } catch (IOException ex) {
+                // older segments are kept, so recovery still works from the previous snapshot
+                LOGGER.warn("Tasks snapshot failed: segment={}", segment, ex);
+            }
+        });
+    }
+
+    private FileChannel openWal(long segment) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(segment, WAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // make the new file's directory entry durable as well
+        forceDirectory();
+        return channel;
+    }
+
+    private void writeSnapshot(long segment, List<TaskMutation> state) throws IOException {
+        Path target = segmentPath(segment, SNAPSHOT_SUFFIX);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+            for (TaskMutation m : state) {
+                out.write(encode(m));
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+        deleteSegmentsBefore(segment);
+    }
+
+    private void deleteSegmentsBefore(long segment) throws IOException {
+        try (Stream<Path> files = Files.list(m_dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (m.matches() && Long.parseLong(m.group(1)) < segment) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private void forceDirectory() {
+        try (FileChannel dir = FileChannel.open(m_dir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ex) {
+            // not supported on every platform (e.g. Windows); file data itself is already forced
+        }
+    }
+
+    private Path segmentPath(long segment, String suffix) {
+        return m_dir.resolve(String.format("tasks-%010d%s", segment, suffix));
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // returns false if the file ended with a short or corrupt record
+    private static boolean readRecords(Path file, List<TaskMutation> into) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    return true;
+                }
+                try {
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        return false;
+                    }
+                    int expectedCrc = in.readInt();
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != expectedCrc) {
+                        return false;
+                    }
+                    into.add(decode(payload));
+                } catch (EOFException | IllegalArgumentException | DateTimeException ex) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    static byte[] encode(TaskMutation mutation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, patched below
+        out.writeInt(0); // crc, patched below
+        switch (mutation) {
+            case TaskMutation.TaskAdded a -> {
+                out.writeByte(TASK_ADDED);
+                writeUuid(out, a.taskid());
+                writeString(out, a.name());
+                writeString(out, a.desc());
+                out.writeBoolean(a.dueDate().isPresent());
+                if (a.dueDate().isPresent()) {
+                    out.writeLong(a.dueDate().get().toEpochDay());
+                }
+                out.writeBoolean(a.dueTime().isPresent());
+                if (a.dueTime().isPresent()) {
+                    out.writeLong(a.dueTime().get().toNanoOfDay());
+                }
+                writeString(out, a.createdBy());
+                String[] responsibilityOf = a.responsibilityOf();
+                out.writeInt(responsibilityOf == null ? -1 : responsibilityOf.length);
+                if (responsibilityOf != null) {
+                    for (String r : responsibilityOf) {
+                        writeString(out, r);
+                    }
+                }
+                writeDateTime(out, a.creationDatetime());
+                out.writeBoolean(a.done());
+            }
+            case TaskMutation.TaskDone d -> {
+                out.writeByte(TASK_DONE);
+                writeUuid(out, d.taskid());
+            }
+            case TaskMutation.CommentAdded c -> {
+                out.writeByte(COMMENT_ADDED);
+                writeUuid(out, c.taskid());
+                writeUuid(out, c.commentid());
+                writeString(out, c.text());
+                writeString(out, c.image().orElse(null));
+                writeString(out, c.attachment().orElse(null));
+                writeString(out, c.createdBy());
+                writeDateTime(out, c.createdOn());
+                out.writeInt(c.index());
+                out.writeInt(c.indent());
+            }
+            case TaskMutation.CommentRemoved r -> {
+                out.writeByte(COMMENT_REMOVED);
+                writeUuid(out, r.taskid());
+                writeUuid(out, r.commentid());
+            }
+            case TaskMutation.CommentFileSet f -> {
+                out.writeByte(COMMENT_FILE_SET);
+                writeUuid(out, f.taskid());
+                writeUuid(out, f.commentid());
+                writeString(out, f.image().orElse(null));
+                writeString(out, f.attachment().orElse(null));
+                out.writeByte(f.fetchState().ordinal());
+            }
+        }
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - FRAME_HEADER_BYTES;
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("Tasks journal record too large: " + length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame, FRAME_HEADER_BYTES, length);
+        ByteBuffer.wrap(frame).putInt(0, length).putInt(4, (int) crc.getValue());
+        return frame;
+    }
+
+    static TaskMutation decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        return switch (type) {
+            case TASK_ADDED -> {
+                UUID taskid = readUuid(in);
+                String name = readString(in);
+                String desc = readString(in);
+                Optional<LocalDate> dueDate = in.readBoolean() ? Optional.of(LocalDate.ofEpochDay(in.readLong())) : Optional.empty();
+                Optional<LocalTime> dueTime = in.readBoolean() ? Optional.of(LocalTime.ofNanoOfDay(in.readLong())) : Optional.empty();
+                String createdBy = readString(in);
+                int responsibleCount = in.readInt();
+                String[] responsibilityOf = null;
+                if (responsibleCount >= 0) {
+                    responsibilityOf = new String[responsibleCount];
+                    for (int i = 0; i < responsibleCount; ++i) {
+                        responsibilityOf[i] = readString(in);
+                    }
+                }
+                LocalDateTime creationDatetime = readDateTime(in);
+                boolean done = in.readBoolean();
+                yield new TaskMutation.TaskAdded(taskid, name, desc, dueDate, dueTime, createdBy, responsibilityOf, creationDatetime, done);
+            }
+            case TASK_DONE -> new TaskMutation.TaskDone(readUuid(in));
+            case COMMENT_ADDED -> new TaskMutation.CommentAdded(
+                    readUuid(in),
+                    readUuid(in),
+                    readString(in),
+                    Optional.ofNullable(readString(in)),
+                    Optional.ofNullable(readString(in)),
+                    readString(in),
+                    readDateTime(in),
+                    in.readInt(),
+                    in.readInt()
+            );
+            case COMMENT_REMOVED -> new TaskMutation.CommentRemoved(readUuid(in), readUuid(in));
+            case COMMENT_FILE_SET -> new TaskMutation.CommentFileSet(
+                    readUuid(in),
+                    readUuid(in),
+                    Optional.ofNullable(readString(in)),
+                    Optional.ofNullable(readString(in)),
+                    readFetchState(in)
+            );
+            default -> throw new IllegalArgumentException("Unknown tasks journal record type: " + type);
+        };
+    }
+
+    private static TaskComment.FetchState readFetchState(DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        TaskComment.FetchState[] states = TaskComment.FetchState.values();
+        if (ordinal >= states.length) {
+            throw new IllegalArgumentException("Unknown comment fetch state: " + ordinal);
+        }
+        return states[ordinal];
+    }
+
+    private static void writeUuid(DataOutput out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    // writeUTF() is limited to 64KB, so strings are written as [int length (-1 for null)][UTF-8 bytes]
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("String length out of range: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDateTime(DataOutput out, LocalDateTime value) throws IOException {
+        out.writeLong(value.toLocalDate().toEpochDay());
+        out.writeLong(value.toLocalTime().toNanoOfDay());
+    }
+
+    private static LocalDateTime readDateTime(DataInput in) throws IOException {
+        LocalDate date = LocalDate.ofEpochDay(in.readLong());
+        return LocalDateTime.of(date, LocalTime.ofNanoOfDay(in.readLong()));
+    }
+}
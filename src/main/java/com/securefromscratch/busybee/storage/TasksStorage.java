@@ -1,5 +1,10 @@
 package com.securefromscratch.busybee.storage;
 
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -7,21 +12,147 @@ import java.io.*;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.nio.file.Path;
 
 @Service
 public class TasksStorage {
-    private final List<Task> m_tasks = loadTasks();
+    private static final Logger LOGGER = LoggerFactory.getLogger(TasksStorage.class);
 
-    public TasksStorage() throws IOException, ClassNotFoundException {
-        // Use initial hardcoded values if the file does not exist or is empty
+    // Display order. Tasks are never removed, only replaced in place (see replaceWithDone).
+    // Guarded by m_mutationLock; readers get a copy from getAll()
+    private final List<Task> m_tasks = new ArrayList<>();
+    // Primary-key index for O(1) lookups from the authorization checks; readers don't take m_mutationLock
+    private final Map<UUID, Task> m_tasksById = new ConcurrentHashMap<>();
+    // Slot of each task in m_tasks; only touched while holding m_mutationLock
+    private final Map<UUID, Integer> m_positions = new HashMap<>();
+    // username -> ids of the tasks they may view (creator or in responsibilityOf), in display order.
+    // Holds ids rather than tasks, so markDone's in-place replacement needs no update here.
+    private final Map<String, List<UUID>> m_visibleTaskIds = new ConcurrentHashMap<>();
+    // stored filename -> ids of the tasks with a comment referencing it; used by the /image and /attachment checks
+    private final Map<String, Set<UUID>> m_imageTaskIds = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> m_attachmentTaskIds = new ConcurrentHashMap<>();
+    // Change tracking for delta sync. Revisions start from the boot time (in microseconds) so they keep increasing
+    // across restarts: a client holding a revision from before the restart simply gets everything again.
+    private final AtomicLong m_revision = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final Map<UUID, Long> m_taskRevisions = new ConcurrentHashMap<>();
+    // revision -> task, holding only each task's latest revision, so "changed since" is a tail view
+    private final ConcurrentNavigableMap<Long, UUID> m_changedTasks = new ConcurrentSkipListMap<>();
+    private final List<Consumer<TaskEvent>> m_listeners = new CopyOnWriteArrayList<>();
+    // Serializes mutations so they reach the journal in the same order they were applied in memory
+    private final Object m_mutationLock = new Object();
+    private final TasksJournal m_journal;
+
+    @Autowired
+    private FileStorage m_fileStorage;
+
+    public TasksStorage(@Value("${busybee.tasks.journal-dir:data}") String journalDir) throws IOException {
+        m_journal = new TasksJournal(Path.of(journalDir).toAbsolutePath().normalize());
+        loadTasks();
+        // Use initial hardcoded values if the journal does not exist or is empty
         if (m_tasks.isEmpty()) {
-            InitialDataGenerator.fillWithData(m_tasks);
+            List<Task> initialTasks = new ArrayList<>();
+            InitialDataGenerator.fillWithData(initialTasks);
+            initialTasks.forEach(this::insertTask);
         }
+        failInterruptedFetches();
+        m_journal.start(snapshotState());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        m_journal.close();
     }
 
+    // A copy: m_tasks is only consistent while holding m_mutationLock, and callers iterate at their own pace
     public List<Task> getAll() {
-        return Collections.unmodifiableList(m_tasks);
+        synchronized (m_mutationLock) {
+            return List.copyOf(m_tasks);
+        }
+    }
+
+    // Only the tasks the user created or is responsible for, without scanning everyone else's tasks
+    public List<Task> getVisibleTo(String username) {
+        List<UUID> ids = (username == null) ? null : m_visibleTaskIds.get(username);
+        if (ids == null) {
+            return List.of();
+        }
+        List<Task> visible = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            visible.add(m_tasksById.get(id));
+        }
+        return Collections.unmodifiableList(visible);
+    }
+
+    public record Changes(long revision, List<Task> tasks) { }
+
+    // Listeners are called on the mutating request's thread, so they must not block
+    public void addListener(Consumer<TaskEvent> listener) {
+        m_listeners.add(listener);
+    }
+
+    // Must be called while holding m_mutationLock, right after the change, so the event shows exactly that change
+    private TaskEvent eventFor(TaskEvent.Type type, UUID taskid) {
+        return new TaskEvent(type, m_tasksById.get(taskid).snapshot(), m_taskRevisions.getOrDefault(taskid, 0L));
+    }
+
+    private void publish(TaskEvent event) {
+        for (Consumer<TaskEvent> listener : m_listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException ex) {
+                // a failing listener must not fail a mutation that is already saved
+                LOGGER.warn("Task event listener failed: type={}", event.type(), ex);
+            }
+        }
+    }
+
+    // Read under m_mutationLock, so a revision handed out is never one whose change bumpRevision hasn't recorded yet
+    public long currentRevision() {
+        synchronized (m_mutationLock) {
+            return m_revision.get();
+        }
+    }
+
+    // Tasks created or modified after the given revision (each task at most once, in the order of their last change).
+    // The revision and the tail view are read together under m_mutationLock: bumpRevision is mid-way between
+    // counting a revision and recording its task only while a mutation holds the lock.
+    public Changes changedSince(long since) {
+        synchronized (m_mutationLock) {
+            long revision = m_revision.get();
+            if (since >= revision) {
+                return new Changes(revision, List.of());
+            }
+            List<Task> changed = new ArrayList<>();
+            for (UUID id : m_changedTasks.subMap(since, false, revision, true).values()) {
+                changed.add(m_tasksById.get(id));
+            }
+            return new Changes(revision, Collections.unmodifiableList(changed));
+        }
+    }
+
+    public List<Task> findWithImage(String filename) {
+        return tasksOf(m_imageTaskIds, filename);
+    }
+
+    public List<Task> findWithAttachment(String filename) {
+        return tasksOf(m_attachmentTaskIds, filename);
+    }
+
+    private List<Task> tasksOf(Map<String, Set<UUID>> fileIndex, String filename) {
+        Set<UUID> ids = (filename == null) ? null : fileIndex.get(filename);
+        if (ids == null) {
+            return List.of();
+        }
+        return ids.stream().map(m_tasksById::get).filter(Objects::nonNull).toList();
     }
 
     public UUID add(String name, String desc, String createdBy, String[] responsibilityOf) throws IOException {
@@ -40,60 +171,270 @@ public class TasksStorage {
     }
 
     public boolean markDone(UUID taskid) throws IOException {
-        Iterator<Task> tasksItr = m_tasks.iterator();
-        while (tasksItr.hasNext()) {
-            Task t = tasksItr.next();
-            if (t.taskid().equals(taskid)) {
-                if (t.done()) {
-                    return true;
-                }
-                tasksItr.remove();
-                Task doneTask = Task.asDone(t);
-                m_tasks.add(doneTask);
-                saveTasks();
-                return false;
+        CompletableFuture<Void> saved;
+        TaskEvent event;
+        synchronized (m_mutationLock) {
+            Task t = find(taskid).orElseThrow(() -> new TaskNotFoundException(taskid));
+            if (t.done()) {
+                return true;
             }
+            replaceWithDone(t);
+            saved = saveTasks(new TaskMutation.TaskDone(taskid));
+            event = eventFor(TaskEvent.Type.TASK_DONE, taskid);
         }
-        throw new TaskNotFoundException(taskid);
+        awaitSaved(saved);
+        publish(event);
+        return false;
     }
 
     public UUID add(Task newTask) throws IOException {
-        m_tasks.add(newTask);
-        saveTasks();
+        CompletableFuture<Void> saved;
+        TaskEvent event;
+        synchronized (m_mutationLock) {
+            insertTask(newTask);
+            saved = saveTasks(TaskMutation.TaskAdded.of(newTask));
+            event = eventFor(TaskEvent.Type.TASK_CREATED, newTask.taskid());
+        }
+        awaitSaved(saved);
+        publish(event);
         return newTask.taskid();
     }
 
-    private List<Task> loadTasks() {
-        // NOT IMPLEMENTED
-        // TODO: You will need to implement this
-        return new ArrayList<>();
+    private void loadTasks() throws IOException {
+        for (TaskMutation m : m_journal.recover()) {
+            switch (m) {
+                case TaskMutation.TaskAdded added -> insertTask(added.toTask());
+                case TaskMutation.TaskDone done -> find(done.taskid()).ifPresent(this::replaceWithDone);
+                case TaskMutation.CommentAdded comment -> find(comment.taskid()).ifPresent(t -> {
+                    TaskComment c = comment.toComment();
+                    t.insertComment(comment.index(), c);
+                    indexComment(t.taskid(), c);
+                    bumpRevision(t.taskid());
+                });
+                case TaskMutation.CommentRemoved removed -> find(removed.taskid()).ifPresent(t -> {
+                    unindexComment(t, t.removeComment(removed.commentid()));
+                    bumpRevision(t.taskid());
+                });
+                case TaskMutation.CommentFileSet fileSet -> find(fileSet.taskid()).ifPresent(t -> {
+                    int index = t.indexOfComment(fileSet.commentid());
+                    if (index != -1) {
+                        replaceComment(t, fileSet.applyTo(t.comments().get(index)));
+                    }
+                });
+            }
+        }
+    }
+
+    // Background fetches don't survive a restart; their comments are reported as failed instead of pending forever.
+    // Not journaled here: the snapshot written by m_journal.start() already holds the new state.
+    private void failInterruptedFetches() {
+        for (Task t : m_tasks) {
+            for (TaskComment c : List.copyOf(t.comments())) {
+                if (c.fetchState() == TaskComment.FetchState.PENDING) {
+                    replaceComment(t, c.withFetchedFile(Optional.empty(), Optional.empty(), TaskComment.FetchState.FAILED));
+                }
+            }
+        }
+    }
+
+    // Appends to the write-ahead log; must be called while holding m_mutationLock, right after applying the change.
+    // The returned future completes once the record is fsync'ed (batched with other concurrent writers).
+    private CompletableFuture<Void> saveTasks(TaskMutation mutation) {
+        CompletableFuture<Void> saved = m_journal.append(mutation);
+        if (m_journal.compactionDue()) {
+            m_journal.compact(snapshotState());
+        }
+        return saved;
+    }
+
+    private static void awaitSaved(CompletableFuture<Void> saved) throws IOException {
+        try {
+            saved.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving tasks");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException ioEx) {
+                throw ioEx;
+            }
+            throw new IOException("Failed saving tasks", ex.getCause());
+        }
+    }
+
+    // The whole current state as journal records: each task followed by its comments in display order
+    private List<TaskMutation> snapshotState() {
+        List<TaskMutation> state = new ArrayList<>(m_tasks.size());
+        for (Task t : m_tasks) {
+            state.add(TaskMutation.TaskAdded.of(t));
+            for (int i = 0; i < t.comments().size(); ++i) {
+                state.add(TaskMutation.CommentAdded.of(t, i));
+                TaskComment c = t.comments().get(i);
+                if (c.fetchState() != TaskComment.FetchState.NONE) {
+                    state.add(TaskMutation.CommentFileSet.of(t.taskid(), c));
+                }
+            }
+        }
+        return state;
+    }
+
+    private void insertTask(Task t) {
+        m_positions.put(t.taskid(), m_tasks.size());
+        m_tasks.add(t);
+        m_tasksById.put(t.taskid(), t);
+
+        Set<String> viewers = new LinkedHashSet<>();
+        viewers.add(t.createdBy());
+        if (t.responsibilityOf() != null) {
+            viewers.addAll(Arrays.asList(t.responsibilityOf()));
+        }
+        for (String viewer : viewers) {
+            if (viewer != null) {
+                m_visibleTaskIds.computeIfAbsent(viewer, k -> new CopyOnWriteArrayList<>()).add(t.taskid());
+            }
+        }
+        for (TaskComment c : t.comments()) {
+            indexComment(t.taskid(), c);
+        }
+        bumpRevision(t.taskid());
+    }
+
+    // The done copy takes the original's slot, so the display order stays stable.
+    // Task.asDone does not carry the comments over, so their files stop being reachable through this task.
+    private void replaceWithDone(Task t) {
+        Task doneTask = Task.asDone(t);
+        m_tasks.set(m_positions.get(t.taskid()), doneTask);
+        m_tasksById.put(t.taskid(), doneTask);
+        for (TaskComment c : t.comments()) {
+            unindexComment(doneTask, c);
+        }
+        bumpRevision(t.taskid());
+    }
+
+    private void bumpRevision(UUID taskid) {
+        long revision = m_revision.incrementAndGet();
+        m_changedTasks.put(revision, taskid);
+        Long previous = m_taskRevisions.put(taskid, revision);
+        if (previous != null) {
+            m_changedTasks.remove(previous);
+        }
     }
 
-    private void saveTasks() throws IOException {
-        // NOT IMPLEMENTED
-        // TODO: You will need to implement this
+    private void indexComment(UUID taskid, TaskComment c) {
+        c.image().ifPresent(name -> m_imageTaskIds.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(taskid));
+        c.attachment().ifPresent(name -> m_attachmentTaskIds.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(taskid));
+    }
+
+    // t is the task as it is after the removal; another of its comments may still reference the same file
+    private void unindexComment(Task t, TaskComment removed) {
+        removed.image().ifPresent(name -> {
+            if (t.comments().stream().noneMatch(c -> c.image().equals(Optional.of(name)))) {
+                removeFromFileIndex(m_imageTaskIds, name, t.taskid());
+            }
+        });
+        removed.attachment().ifPresent(name -> {
+            if (t.comments().stream().noneMatch(c -> c.attachment().equals(Optional.of(name)))) {
+                removeFromFileIndex(m_attachmentTaskIds, name, t.taskid());
+            }
+        });
+    }
+
+    private static void removeFromFileIndex(Map<String, Set<UUID>> fileIndex, String filename, UUID taskid) {
+        fileIndex.computeIfPresent(filename, (k, ids) -> {
+            ids.remove(taskid);
+            return ids.isEmpty() ? null : ids;
+        });
     }
 
     public UUID addComment(Task t, String text, String createdBy, Optional<UUID> after) throws IOException {
-        UUID commentId = t.addComment(text, createdBy, after);
-        saveTasks();
-        return commentId;
+        return addComment(t, current -> current.addComment(text, createdBy, after));
     }
 
     public UUID addComment(Task t, String text, Optional<String> image, Optional<String> attachment, String createdBy, Optional<UUID> after) throws IOException {
-        UUID commentId = t.addComment(text, image, attachment, createdBy, after);
-        saveTasks();
+        return addComment(t, current -> current.addComment(text, image, attachment, createdBy, after));
+    }
+
+    // The comment starts with no file and FetchState.PENDING; the caller fetches the file and calls setCommentFile
+    public UUID addCommentAwaitingFile(Task t, String text, String createdBy, Optional<UUID> after) throws IOException {
+        return addComment(t, current -> current.addCommentAwaitingFile(text, createdBy, after));
+    }
+
+    private UUID addComment(Task t, Function<Task, UUID> adder) throws IOException {
+        CompletableFuture<Void> saved;
+        TaskEvent event;
+        CompletableFuture<Void> fetchStateSaved = CompletableFuture.completedFuture(null);
+        UUID commentId;
+        synchronized (m_mutationLock) {
+            // t may be a copy that markDone has since replaced; always comment on the stored task
+            Task current = find(t.taskid()).orElseThrow(() -> new TaskNotFoundException(t.taskid()));
+            commentId = adder.apply(current);
+            int index = current.indexOfComment(commentId);
+            TaskComment added = current.comments().get(index);
+            indexComment(current.taskid(), added);
+            bumpRevision(current.taskid());
+            saved = saveTasks(TaskMutation.CommentAdded.of(current, index));
+            if (added.fetchState() != TaskComment.FetchState.NONE) {
+                fetchStateSaved = saveTasks(TaskMutation.CommentFileSet.of(current.taskid(), added));
+            }
+            event = eventFor(TaskEvent.Type.COMMENT_ADDED, current.taskid());
+        }
+        awaitSaved(saved);
+        awaitSaved(fetchStateSaved);
+        publish(event);
         return commentId;
     }
 
+    // Completes (or fails) a comment added by addCommentAwaitingFile.
+    // Returns false if the comment is gone by now (removed, or its task marked done), so the caller can drop the file.
+    public boolean setCommentFile(UUID taskid, UUID commentId, Optional<String> image, Optional<String> attachment, TaskComment.FetchState fetchState) throws IOException {
+        CompletableFuture<Void> saved;
+        TaskEvent event;
+        synchronized (m_mutationLock) {
+            Optional<Task> current = find(taskid);
+            int index = current.map(t -> t.indexOfComment(commentId)).orElse(-1);
+            if (index == -1) {
+                return false;
+            }
+            TaskComment updated = current.get().comments().get(index).withFetchedFile(image, attachment, fetchState);
+            replaceComment(current.get(), updated);
+            saved = saveTasks(TaskMutation.CommentFileSet.of(taskid, updated));
+            event = eventFor(TaskEvent.Type.COMMENT_UPDATED, taskid);
+        }
+        awaitSaved(saved);
+        publish(event);
+        return true;
+    }
+
+    public Optional<TaskComment> findComment(UUID taskid, UUID commentId) {
+        Optional<Task> t = find(taskid);
+        int index = t.map(task -> task.indexOfComment(commentId)).orElse(-1);
+        return (index == -1) ? Optional.empty() : Optional.of(t.get().comments().get(index));
+    }
+
+    private void replaceComment(Task t, TaskComment updated) {
+        TaskComment previous = t.replaceComment(updated);
+        unindexComment(t, previous);
+        indexComment(t.taskid(), updated);
+        bumpRevision(t.taskid());
+    }
+
+    public void removeComment(Task t, UUID commentId) throws IOException {
+        CompletableFuture<Void> saved;
+        synchronized (m_mutationLock) {
+            Task current = find(t.taskid()).orElseThrow(() -> new TaskNotFoundException(t.taskid()));
+            unindexComment(current, current.removeComment(commentId));
+            bumpRevision(current.taskid());
+            saved = saveTasks(new TaskMutation.CommentRemoved(current.taskid(), commentId));
+        }
+        awaitSaved(saved);
+    }
+
     public UUID addCommentWithOptionalUpload(Task t, String text, Optional<MultipartFile> optFile, String createdBy, Optional<UUID> after) throws IOException {
         if (optFile == null || optFile.isEmpty() || optFile.get() == null || optFile.get().isEmpty()) {
             return addComment(t, text, createdBy, after);
         }
 
         MultipartFile file = optFile.get();
-        FileStorage storage = new FileStorage(Path.of("uploads").toAbsolutePath().normalize());
-        String storedFilename = storage.storeUpload(file, createdBy);
+        String storedFilename = m_fileStorage.storeUpload(file, createdBy);
 
         FileStorage.FileType filetype = FileStorage.identifyType(file);
         Optional<String> imageFilename = (filetype == FileStorage.FileType.IMAGE) ? Optional.of(storedFilename) : Optional.empty();
@@ -102,13 +443,13 @@ public class TasksStorage {
         try {
             return addComment(t, text, imageFilename, attachFilename, createdBy, after);
         } catch (IOException | RuntimeException ex) {
-            storage.cleanupStoredUpload(storedFilename);
+            m_fileStorage.cleanupStoredUpload(storedFilename);
             throw ex;
         }
     }
 
     public Optional<Task> find(UUID taskid) {
-        return m_tasks.stream().filter((other)->other.taskid().equals(taskid)).findAny();
+        return (taskid == null) ? Optional.empty() : Optional.ofNullable(m_tasksById.get(taskid));
     }
 
     public boolean taskNameExists(String name) {
@@ -120,7 +461,7 @@ public class TasksStorage {
             return false;
         }
 
-        return m_tasks.stream()
+        return getAll().stream()
                 .map(Task::name)
                 .filter(Objects::nonNull)
                 .anyMatch(existing -> existing.trim().equalsIgnoreCase(normalizedName));
@@ -0,0 +1,340 @@
+package com.securefromscratch.busybee.storage;
+
+import org.springframework.http.HttpStatus;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Streaming checks over the bytes of an upload, run by FileStorage's copy loop.
+// Every stage sees every chunk exactly once, in order, as it is read, so another check (a different hash, a
+// limit on what the header declares) costs neither another pass over the file nor another copy of it.
+// A stage rejects the upload by throwing RejectedException; FileStorage turns that into the usual client error.
+final class UploadPipeline {
+    enum MagicType { JPG, PNG, GIF, WEBP, PDF, UNKNOWN }
+
+    interface Stage {
+        // The next bytes, between position and limit. A stage may move position and limit (they are restored for
+        // the next stage) but must not change the bytes.
+        void accept(ByteBuffer chunk);
+
+        // end of input
+        default void finish() {
+        }
+    }
+
+    static final class RejectedException extends RuntimeException {
+        private final HttpStatus m_status;
+
+        RejectedException(HttpStatus status, String reason) {
+            super(reason, null, false, false);
+            m_status = status;
+        }
+
+        HttpStatus status() {
+            return m_status;
+        }
+    }
+
+    private final List<Stage> m_stages;
+
+    UploadPipeline(List<Stage> stages) {
+        m_stages = List.copyOf(stages);
+    }
+
+    void accept(ByteBuffer chunk) {
+        int position = chunk.position();
+        int limit = chunk.limit();
+        for (Stage stage : m_stages) {
+            stage.accept(chunk);
+            chunk.limit(limit).position(position);
+        }
+    }
+
+    void finish() {
+        for (Stage stage : m_stages) {
+            stage.finish();
+        }
+    }
+
+    // Identifies the file type from its first bytes and hands it to a validator as soon as they are in
+    static final class MagicBytes implements Stage {
+        static final int HEADER_BYTES = 16;
+
+        private final byte[] m_header = new byte[HEADER_BYTES];
+        private final Consumer<MagicType> m_validator;
+        private int m_length;
+        private MagicType m_type;
+
+        MagicBytes(Consumer<MagicType> validator) {
+            m_validator = validator;
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            if (m_type != null) {
+                return;
+            }
+            int n = Math.min(chunk.remaining(), HEADER_BYTES - m_length);
+            chunk.get(m_header, m_length, n);
+            m_length += n;
+            if (m_length == HEADER_BYTES) {
+                detected(detect(m_header, m_length));
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (m_length == 0) {
+                throw new RejectedException(HttpStatus.BAD_REQUEST, "Empty file");
+            }
+            if (m_type == null) {
+                detected(detect(m_header, m_length));
+            }
+        }
+
+        private void detected(MagicType type) {
+            m_type = type;
+            m_validator.accept(type);
+        }
+
+        static MagicType detect(byte[] header, int len) {
+            if (len >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+                return MagicType.JPG;
+            }
+            if (len >= 8
+                    && (header[0] & 0xFF) == 0x89
+                    && header[1] == 0x50
+                    && header[2] == 0x4E
+                    && header[3] == 0x47
+                    && header[4] == 0x0D
+                    && header[5] == 0x0A
+                    && header[6] == 0x1A
+                    && header[7] == 0x0A) {
+                return MagicType.PNG;
+            }
+            if (len >= 6) {
+                String sig = new String(header, 0, 6, StandardCharsets.US_ASCII);
+                if ("GIF87a".equals(sig) || "GIF89a".equals(sig)) {
+                    return MagicType.GIF;
+                }
+            }
+            if (len >= 12) {
+                String riff = new String(header, 0, 4, StandardCharsets.US_ASCII);
+                String webp = new String(header, 8, 4, StandardCharsets.US_ASCII);
+                if ("RIFF".equals(riff) && "WEBP".equals(webp)) {
+                    return MagicType.WEBP;
+                }
+            }
+            if (len >= 5) {
+                String sig = new String(header, 0, 5, StandardCharsets.US_ASCII);
+                if ("%PDF-".equals(sig)) {
+                    return MagicType.PDF;
+                }
+            }
+            return MagicType.UNKNOWN;
+        }
+    }
+
+    static final class SizeLimit implements Stage {
+        private final long m_maxBytes;
+        private long m_total;
+
+        SizeLimit(long maxBytes) {
+            m_maxBytes = maxBytes;
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            m_total += chunk.remaining();
+            if (m_total > m_maxBytes) {
+                throw new RejectedException(HttpStatus.PAYLOAD_TOO_LARGE, "File too large");
+            }
+        }
+
+        long total() {
+            return m_total;
+        }
+    }
+
+    static final class Digest implements Stage {
+        private final MessageDigest m_digest;
+
+        Digest(MessageDigest digest) {
+            m_digest = digest;
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            m_digest.update(chunk);
+        }
+
+        byte[] digest() {
+            return m_digest.digest();
+        }
+    }
+
+    // Width and height as declared by the image header, read as it streams past: PNG, GIF and WebP keep them at
+    // fixed offsets near the start, JPEG in its first frame (SOFn) segment, after any metadata segments.
+    // Images whose header declares more than maxPixels are rejected before they are stored (decompression bombs);
+    // files whose dimensions can't be found this way are left to the other checks.
+    static final class ImageDimensions implements Stage {
+        record Dimensions(int width, int height) {
+        }
+
+        // up to the VP8X canvas size of a WebP file
+        private static final int FIXED_HEADER_BYTES = 30;
+
+        private enum JpegState { MARKER_START, MARKER, SEGMENT, DONE }
+
+        private final long m_maxPixels;
+        private final byte[] m_header = new byte[FIXED_HEADER_BYTES];
+        private int m_headerLength;
+        private Dimensions m_dimensions;
+
+        private JpegState m_jpegState = JpegState.MARKER_START;
+        private final byte[] m_segment = new byte[7];
+        private int m_segmentLength;
+        private int m_marker;
+        private long m_skip;
+
+        ImageDimensions(long maxPixels) {
+            m_maxPixels = maxPixels;
+        }
+
+        @Override
+        public void accept(ByteBuffer chunk) {
+            if (m_headerLength < FIXED_HEADER_BYTES) {
+                int n = Math.min(chunk.remaining(), FIXED_HEADER_BYTES - m_headerLength);
+                chunk.get(chunk.position(), m_header, m_headerLength, n);
+                m_headerLength += n;
+                if (m_headerLength == FIXED_HEADER_BYTES) {
+                    fromFixedHeader();
+                }
+            }
+            acceptJpeg(chunk);
+        }
+
+        @Override
+        public void finish() {
+            if (m_headerLength < FIXED_HEADER_BYTES) {
+                fromFixedHeader();
+            }
+        }
+
+        Optional<Dimensions> dimensions() {
+            return Optional.ofNullable(m_dimensions);
+        }
+
+        private void fromFixedHeader() {
+            switch (MagicBytes.detect(m_header, m_headerLength)) {
+                case PNG -> {
+                    // IHDR is always the first chunk
+                    if (m_headerLength >= 24) {
+                        found(bigEndian32(16), bigEndian32(20));
+                    }
+                }
+                case GIF -> {
+                    if (m_headerLength >= 10) {
+                        found(littleEndian16(6), littleEndian16(8));
+                    }
+                }
+                case WEBP -> fromWebpHeader();
+                default -> {
+                    // JPEG is handled while streaming; other types have no dimensions
+                }
+            }
+        }
+
+        private void fromWebpHeader() {
+            if (m_headerLength < FIXED_HEADER_BYTES) {
+                return;
+            }
+            String format = new String(m_header, 12, 4, StandardCharsets.US_ASCII);
+            switch (format) {
+                case "VP8X" -> found(littleEndian24(24) + 1, littleEndian24(27) + 1);
+                case "VP8 " -> found(littleEndian16(26) & 0x3FFF, littleEndian16(28) & 0x3FFF);
+                case "VP8L" -> {
+                    int bits = littleEndian16(21) | (littleEndian16(23) << 16);
+                    found((bits & 0x3FFF) + 1, ((bits >>> 14) & 0x3FFF) + 1);
+                }
+                default -> {
+                    // unknown WebP flavour
+                }
+            }
+        }
+
+        private void acceptJpeg(ByteBuffer chunk) {
+            while (chunk.hasRemaining() && m_jpegState != JpegState.DONE) {
+                if (m_skip > 0) {
+                    int n = (int) Math.min(m_skip, chunk.remaining());
+                    chunk.position(chunk.position() + n);
+                    m_skip -= n;
+                    continue;
+                }
+                int b = chunk.get() & 0xFF;
+                switch (m_jpegState) {
+                    // anything but a marker here means this is not a JPEG (or not one we can follow)
+                    case MARKER_START -> m_jpegState = (b == 0xFF) ? JpegState.MARKER : JpegState.DONE;
+                    case MARKER -> {
+                        if (b == 0xD8 || b == 0x01 || (b >= 0xD0 && b <= 0xD7)) {
+                            // no segment follows these markers
+                            m_jpegState = JpegState.MARKER_START;
+                        } else if (b == 0xDA || b == 0xD9) {
+                            // scan data or end of image before any frame header
+                            m_jpegState = JpegState.DONE;
+                        } else if (b != 0xFF) {
+                            // 0xFF is fill before a marker
+                            m_marker = b;
+                            m_segmentLength = 0;
+                            m_jpegState = JpegState.SEGMENT;
+                        }
+                    }
+                    case SEGMENT -> acceptJpegSegmentByte(b);
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        // SOFn: length (2), precision (1), height (2), width (2); any other segment is skipped by its length
+        private void acceptJpegSegmentByte(int b) {
+            m_segment[m_segmentLength++] = (byte) b;
+            boolean frameHeader = m_marker >= 0xC0 && m_marker <= 0xCF && m_marker != 0xC4 && m_marker != 0xC8 && m_marker != 0xCC;
+            if (frameHeader && m_segmentLength == 7) {
+                m_jpegState = JpegState.DONE;
+                found(((m_segment[5] & 0xFF) << 8) | (m_segment[6] & 0xFF), ((m_segment[3] & 0xFF) << 8) | (m_segment[4] & 0xFF));
+            } else if (!frameHeader && m_segmentLength == 2) {
+                int length = ((m_segment[0] & 0xFF) << 8) | (m_segment[1] & 0xFF);
+                m_skip = length - 2;
+                m_jpegState = (length < 2) ? JpegState.DONE : JpegState.MARKER_START;
+            }
+        }
+
+        private void found(long width, long height) {
+            if (m_dimensions != null || width <= 0 || height <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+                return;
+            }
+            if (width * height > m_maxPixels) {
+                throw new RejectedException(HttpStatus.PAYLOAD_TOO_LARGE, "Image dimensions too large");
+            }
+            m_dimensions = new Dimensions((int) width, (int) height);
+        }
+
+        private long bigEndian32(int offset) {
+            return ((long) (m_header[offset] & 0xFF) << 24) | ((m_header[offset + 1] & 0xFF) << 16)
+                    | ((m_header[offset + 2] & 0xFF) << 8) | (m_header[offset + 3] & 0xFF);
+        }
+
+        private int littleEndian16(int offset) {
+            return (m_header[offset] & 0xFF) | ((m_header[offset + 1] & 0xFF) << 8);
+        }
+
+        private int littleEndian24(int offset) {
+            return littleEndian16(offset) | ((m_header[offset + 2] & 0xFF) << 16);
+        }
+    }
+}
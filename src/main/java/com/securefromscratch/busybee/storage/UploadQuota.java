@@ -0,0 +1,154 @@
+package com.securefromscratch.busybee.storage;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-user upload usage (file count + bytes) kept in memory, so an upload doesn't list the user's directory
+// or ask the file system for free space every time.
+// Usage includes in-flight uploads: a slot and the worst-case size are reserved before writing, then either
+// committed with the real size or released, so concurrent uploads by one user can't overshoot the file limit.
+final class UploadQuota {
+    private static final long FREE_SPACE_SAMPLE_INTERVAL_NANOS = 5_000_000_000L;
+
+    enum Denial { TOO_MANY_FILES, INSUFFICIENT_SPACE }
+
+    static final class QuotaExceededException extends Exception {
+        private final Denial m_denial;
+
+        QuotaExceededException(Denial denial) {
+            super(denial.name(), null, false, false);
+            m_denial = denial;
+        }
+
+        Denial denial() {
+            return m_denial;
+        }
+    }
+
+    record Usage(int files, long bytes) {
+        Usage plus(int moreFiles, long moreBytes) {
+            return new Usage(files + moreFiles, bytes + moreBytes);
+        }
+    }
+
+    // Held for the duration of one upload; closing without commit() gives the slot and bytes back
+    final class Reservation implements AutoCloseable {
+        private final String m_user;
+        private final long m_reservedBytes;
+        private boolean m_done;
+
+        private Reservation(String user, long reservedBytes) {
+            m_user = user;
+            m_reservedBytes = reservedBytes;
+        }
+
+        Usage commit(long actualBytes) {
+            m_done = true;
+            m_inFlightBytes.addAndGet(-m_reservedBytes);
+            return m_usage.merge(m_user, new Usage(0, actualBytes - m_reservedBytes), UploadQuota::add);
+        }
+
+        @Override
+        public void close() {
+            if (!m_done) {
+                m_done = true;
+                m_inFlightBytes.addAndGet(-m_reservedBytes);
+                m_usage.merge(m_user, new Usage(-1, -m_reservedBytes), UploadQuota::add);
+            }
+        }
+    }
+
+    private final BoxedPath m_root;
+    private final int m_maxFilesPerUser;
+    private final long m_minFreeBytes;
+    private final Map<String, Usage> m_usage = new ConcurrentHashMap<>();
+    private final AtomicLong m_inFlightBytes = new AtomicLong();
+    private final AtomicLong m_freeBytesSampledAt = new AtomicLong();
+    private volatile long m_freeBytes;
+
+    private UploadQuota(BoxedPath root, int maxFilesPerUser, long minFreeBytes) {
+        m_root = root;
+        m_maxFilesPerUser = maxFilesPerUser;
+        m_minFreeBytes = minFreeBytes;
+    }
+
+    // One scan of the user directories under root; everything after that is tracked incrementally
+    static UploadQuota scan(BoxedPath root, int maxFilesPerUser, long minFreeBytes, Set<String> skipDirs) throws IOException {
+        UploadQuota quota = new UploadQuota(root, maxFilesPerUser, minFreeBytes);
+        try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path userDir : userDirs) {
+                String user = userDir.getFileName().toString();
+                if (skipDirs.contains(user)) {
+                    continue;
+                }
+                Usage usage = new Usage(0, 0);
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(userDir, Files::isRegularFile)) {
+                    for (Path file : files) {
+                        usage = usage.plus(1, Files.size(file));
+                    }
+                }
+                quota.m_usage.put(user, usage);
+            }
+        }
+        quota.sampleFreeSpace(System.nanoTime());
+        return quota;
+    }
+
+    Reservation reserve(String user, long worstCaseBytes) throws QuotaExceededException {
+        long available = freeBytes() - m_inFlightBytes.get();
+        if (available < m_minFreeBytes + worstCaseBytes) {
+            throw new QuotaExceededException(Denial.INSUFFICIENT_SPACE);
+        }
+
+        boolean[] granted = new boolean[1];
+        m_usage.compute(user, (k, usage) -> {
+            Usage current = (usage == null) ? new Usage(0, 0) : usage;
+            if (current.files() >= m_maxFilesPerUser) {
+                return usage;
+            }
+            granted[0] = true;
+            return current.plus(1, worstCaseBytes);
+        });
+        if (!granted[0]) {
+            throw new QuotaExceededException(Denial.TOO_MANY_FILES);
+        }
+        m_inFlightBytes.addAndGet(worstCaseBytes);
+        return new Reservation(user, worstCaseBytes);
+    }
+
+    void removed(String user, long bytes) {
+        m_usage.computeIfPresent(user, (k, usage) -> usage.plus(-1, -bytes));
+    }
+
+    private static Usage add(Usage a, Usage b) {
+        return a.plus(b.files(), b.bytes());
+    }
+
+    // Free space is sampled at most every few seconds; the in-flight reservations cover the gap between samples
+    private long freeBytes() {
+        long now = System.nanoTime();
+        long sampledAt = m_freeBytesSampledAt.get();
+        if (now - sampledAt > FREE_SPACE_SAMPLE_INTERVAL_NANOS && m_freeBytesSampledAt.compareAndSet(sampledAt, now)) {
+            sampleFreeSpace(now);
+        }
+        return m_freeBytes;
+    }
+
+    private void sampleFreeSpace(long now) {
+        try {
+            m_freeBytes = Files.getFileStore(m_root).getUsableSpace();
+            m_freeBytesSampledAt.set(now);
+        } catch (IOException ex) {
+            // keep the previous sample; the next upload tries again
+            m_freeBytesSampledAt.set(0);
+        }
+    }
+}
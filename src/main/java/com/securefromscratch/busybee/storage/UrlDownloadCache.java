@@ -0,0 +1,230 @@
+package com.securefromscratch.busybee.storage;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+// Disk-backed cache of URL downloads, keyed by normalized URI, used by UrlImageDownloader to revalidate with a
+// conditional GET instead of downloading the same image again.
+// Each entry is <key>.bin, a hard link to the stored upload's blob (so cached content costs no extra space while
+// an upload still uses it), plus <key>.meta with the validators (ETag / Last-Modified) and content type.
+// Eviction is LRU by total content bytes; the order survives restarts approximately (by .meta modification time).
+final class UrlDownloadCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UrlDownloadCache.class);
+    private static final Pattern KEY = Pattern.compile("^[0-9a-f]{64}$");
+    private static final String CONTENT_SUFFIX = ".bin";
+    private static final String META_SUFFIX = ".meta";
+
+    record Entry(String key, String etag, String lastModified, String contentType, String filename, long size) {
+    }
+
+    private final FileStorage m_fileStorage;
+    private final BoxedPath m_dir;
+    private final long m_maxBytes;
+    // access-ordered: the first entry is the least recently used; guarded by this, as are the files
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long m_totalBytes;
+
+    private UrlDownloadCache(FileStorage fileStorage, BoxedPath dir, long maxBytes) {
+        m_fileStorage = fileStorage;
+        m_dir = dir;
+        m_maxBytes = maxBytes;
+    }
+
+    static UrlDownloadCache open(FileStorage fileStorage, long maxBytes) throws IOException {
+        UrlDownloadCache cache = new UrlDownloadCache(fileStorage, fileStorage.urlCacheDirectory(), maxBytes);
+        cache.load();
+        return cache;
+    }
+
+    // Same resource, same key: scheme and host are case-insensitive, default ports and fragments are dropped
+    static String key(URI uri) {
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+            port = -1;
+        }
+        URI normalizedUri = uri.normalize();
+        String path = (normalizedUri.getRawPath() == null || normalizedUri.getRawPath().isEmpty()) ? "/" : normalizedUri.getRawPath();
+        String normalized = scheme + "://" + normalizedUri.getHost().toLowerCase(Locale.ROOT)
+                + (port == -1 ? "" : ":" + port)
+                + path
+                + (normalizedUri.getRawQuery() == null ? "" : "?" + normalizedUri.getRawQuery());
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 unavailable", ex);
+        }
+    }
+
+    synchronized Optional<Entry> lookup(URI uri) {
+        return Optional.ofNullable(m_entries.get(key(uri)));
+    }
+
+    // The cached content; null if the entry was evicted meanwhile
+    synchronized InputStream openContent(Entry entry) throws IOException {
+        if (m_entries.get(entry.key()) != entry) {
+            return null;
+        }
+        return Files.newInputStream(contentPath(entry.key()));
+    }
+
+    // Records a fresh download (replacing an older entry for the same URI); only revalidatable responses are kept
+    synchronized void put(URI uri, String storedRelativePath, String etag, String lastModified, String contentType, String filename, long size) {
+        if (size > m_maxBytes || (etag == null && lastModified == null)) {
+            return;
+        }
+        String key = key(uri);
+        remove(key);
+        Entry entry = new Entry(key, etag, lastModified, contentType, filename, size);
+        try {
+            m_fileStorage.linkStoredUpload(storedRelativePath, contentPath(key));
+            writeMeta(entry);
+        } catch (IOException ex) {
+            LOGGER.warn("URL cache store failed: key={}", key, ex);
+            deleteFiles(key);
+            return;
+        }
+        m_entries.put(key, entry);
+        m_totalBytes += size;
+        evictOverLimit();
+    }
+
+    // A 304 confirmed the entry; refresh its position (and its .meta time, which orders entries after a restart)
+    synchronized void revalidated(Entry entry) {
+        if (m_entries.get(entry.key()) == entry) {
+            try {
+                Files.setLastModifiedTime(metaPath(entry.key()), FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException ex) {
+                // only the order after a restart is affected
+            }
+        }
+    }
+
+    synchronized long totalBytes() {
+        return m_totalBytes;
+    }
+
+    private void evictOverLimit() {
+        Iterator<Map.Entry<String, Entry>> lru = m_entries.entrySet().iterator();
+        while (m_totalBytes > m_maxBytes && lru.hasNext()) {
+            Entry evicted = lru.next().getValue();
+            lru.remove();
+            m_totalBytes -= evicted.size();
+            deleteFiles(evicted.key());
+        }
+    }
+
+    private void remove(String key) {
+        Entry existing = m_entries.remove(key);
+        if (existing != null) {
+            m_totalBytes -= existing.size();
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(String key) {
+        try {
+            m_fileStorage.releaseLinkedFile(contentPath(key));
+            Files.deleteIfExists(metaPath(key));
+        } catch (IOException ex) {
+            LOGGER.warn("URL cache cleanup failed: key={}", key, ex);
+        }
+    }
+
+    private void load() throws IOException {
+        record Loaded(Entry entry, FileTime lastUsed) {
+        }
+        List<Loaded> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> metas = Files.newDirectoryStream(m_dir, "*" + META_SUFFIX)) {
+            for (Path meta : metas) {
+                String name = meta.getFileName().toString();
+                String key = name.substring(0, name.length() - META_SUFFIX.length());
+                if (!KEY.matcher(key).matches()) {
+                    continue;
+                }
+                Optional<Entry> entry = readMeta(key);
+                if (entry.isPresent() && Files.isRegularFile(contentPath(key))) {
+                    loaded.add(new Loaded(entry.get(), Files.getLastModifiedTime(meta)));
+                } else {
+                    deleteFiles(key);
+                }
+            }
+        }
+        loaded.sort(Comparator.comparing(Loaded::lastUsed));
+        synchronized (this) {
+            for (Loaded l : loaded) {
+                m_entries.put(l.entry().key(), l.entry());
+                m_totalBytes += l.entry().size();
+            }
+            evictOverLimit();
+        }
+    }
+
+    private Optional<Entry> readMeta(String key) {
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(metaPath(key))) {
+            meta.load(in);
+            return Optional.of(new Entry(
+                    key,
+                    meta.getProperty("etag"),
+                    meta.getProperty("lastModified"),
+                    meta.getProperty("contentType", ""),
+                    meta.getProperty("filename"),
+                    Files.size(contentPath(key))
+            ));
+        } catch (IOException | IllegalArgumentException ex) {
+            return Optional.empty();
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties meta = new Properties();
+        if (entry.etag() != null) {
+            meta.setProperty("etag", entry.etag());
+        }
+        if (entry.lastModified() != null) {
+            meta.setProperty("lastModified", entry.lastModified());
+        }
+        meta.setProperty("contentType", entry.contentType());
+        meta.setProperty("filename", entry.filename());
+        BoxedPath temp = m_dir.resolve(entry.key() + META_SUFFIX + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            meta.store(out, null);
+        }
+        Files.move(temp, metaPath(entry.key()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private BoxedPath contentPath(String key) {
+        return m_dir.resolve(key + CONTENT_SUFFIX);
+    }
+
+    private BoxedPath metaPath(String key) {
+        return m_dir.resolve(key + META_SUFFIX);
+    }
+}
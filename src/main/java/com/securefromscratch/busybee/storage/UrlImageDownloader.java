@@ -1,33 +1,92 @@
 package com.securefromscratch.busybee.storage;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.file.Path;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+// Downloads run on virtual threads through one shared HttpClient (connection reuse, HTTP/2 where offered).
+// A download has a single deadline covering connect, response headers and body, including any wait for one of
+// the few slots per host (further downloads from the same host queue for a slot rather than fail).
+// The validated addresses of the host are pinned while it downloads (PinnedHostResolverProvider), so the client
+// connects to an address that passed the SSRF checks.
+// Those checks are cached per host for a short TTL (HostVerdictCache): repeat hosts skip DNS entirely, and the
+// pinned addresses are exactly the cached ones that were checked.
+// Downloads with an ETag or Last-Modified are kept in a UrlDownloadCache; the next request for the same URL
+// sends a conditional GET and, on 304, stores the cached content again instead of downloading it.
 @Service
 public class UrlImageDownloader {
     private static final Logger LOGGER = LoggerFactory.getLogger(UrlImageDownloader.class);
 
-    private static final int CONNECT_TIMEOUT_MS = 5_000;
-    private static final int READ_TIMEOUT_MS = 5_000;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration DOWNLOAD_DEADLINE = Duration.ofSeconds(10);
+    private static final int MAX_DOWNLOADS_PER_HOST = 2;
+    private static final long URL_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+    @Autowired
+    private FileStorage m_fileStorage;
+
+    private final ExecutorService m_downloads = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient m_httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .executor(m_downloads)
+            .build();
+    // per-host download slots, kept only while some download uses or waits for them
+    private record HostSlots(Semaphore permits, int users) {
+    }
+
+    private final Map<String, HostSlots> m_hostSlots = new ConcurrentHashMap<>();
+    private final AtomicBoolean m_resolverChecked = new AtomicBoolean();
+    private final HostVerdictCache m_hostVerdicts = new HostVerdictCache();
+    private UrlDownloadCache m_cache;
+
+    @PostConstruct
+    public void openCache() throws IOException {
+        m_cache = UrlDownloadCache.open(m_fileStorage, URL_CACHE_MAX_BYTES);
+    }
+
+    @PreDestroy
+    public void close() {
+        m_downloads.shutdownNow();
+        m_httpClient.shutdownNow();
+    }
 
     /**
      * Downloads a remote image via http/https with SSRF protections, then stores it using FileStorage.
      */
     public String downloadAndStore(String url, String username) throws IOException {
+        long deadlineNanos = System.nanoTime() + DOWNLOAD_DEADLINE.toNanos();
         URI uri = parseAndValidateUrl(url, username);
         LOGGER.info(
             "URL upload attempt: user={} scheme={} host={}",
@@ -36,19 +95,93 @@ public class UrlImageDownloader {
             FileStorage.safeLogValue(uri.getHost())
         );
 
-        validateHostResolvesToPublicIps(uri, username);
+        String host = uri.getHost().toLowerCase(Locale.ROOT);
+        Semaphore permits = m_hostSlots.merge(host, new HostSlots(new Semaphore(MAX_DOWNLOADS_PER_HOST), 1),
+                (existing, added) -> new HostSlots(existing.permits(), existing.users() + 1)).permits();
+        try {
+            if (!permits.tryAcquire(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw deadlineExceeded(uri, username);
+            }
+            try {
+                List<InetAddress> validated = validateHostResolvesToPublicIps(uri, username);
+                warnIfResolverNotInstalled();
+                try (PinnedHostResolverProvider.PinnedHost pinned = PinnedHostResolverProvider.pin(host, validated)) {
+                    return awaitDownload(m_downloads.submit(() -> fetchAndStore(uri, username, deadlineNanos, true)), uri, username, deadlineNanos);
+                }
+            } finally {
+                permits.release();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("URL download interrupted", ex);
+        } finally {
+            m_hostSlots.computeIfPresent(host, (k, slots) -> slots.users() <= 1 ? null : new HostSlots(slots.permits(), slots.users() - 1));
+        }
+    }
+
+    // The resolver provider is loaded by the JDK's first name lookup, which the SSRF check above has just made
+    private void warnIfResolverNotInstalled() {
+        if (!m_resolverChecked.getAndSet(true) && !PinnedHostResolverProvider.isInstalled()) {
+            LOGGER.warn("Pinned host resolver is not installed; URL downloads rely on the pre-connect DNS check only");
+        }
+    }
+
+    // The synchronous part of downloadAndStore's input checks (syntax, scheme, host), for callers that download later
+    public void validateUrl(String url, String username) {
+        parseAndValidateUrl(url, username);
+    }
+
+    private String awaitDownload(Future<String> download, URI uri, String username, long deadlineNanos) throws IOException {
+        try {
+            return download.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            // interrupts the download thread: the body read and the file write both abort, and FileStorage cleans up
+            download.cancel(true);
+            throw deadlineExceeded(uri, username);
+        } catch (InterruptedException ex) {
+            download.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("URL download interrupted", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static ResponseStatusException deadlineExceeded(URI uri, String username) {
+        LOGGER.warn(
+                "URL upload rejected (deadline exceeded): user={} host={}",
+                FileStorage.safeLogValue(username),
+                FileStorage.safeLogValue(uri.getHost())
+        );
+        return new ResponseStatusException(HttpStatus.BAD_REQUEST, "URL download timed out");
+    }
 
-        URL httpUrl = uri.toURL();
-        HttpURLConnection connection = (HttpURLConnection) httpUrl.openConnection();
-        connection.setInstanceFollowRedirects(false);
-        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
-        connection.setReadTimeout(READ_TIMEOUT_MS);
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty("User-Agent", "busybee/1.0");
+    private String fetchAndStore(URI uri, String username, long deadlineNanos, boolean useCache) throws IOException {
+        Optional<UrlDownloadCache.Entry> cached = useCache ? m_cache.lookup(uri) : Optional.empty();
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+                .GET()
+                .timeout(Duration.ofNanos(Math.max(1, deadlineNanos - System.nanoTime())))
+                .header("User-Agent", "busybee/1.0");
+        if (cached.isPresent()) {
+            if (cached.get().etag() != null) {
+                requestBuilder.header("If-None-Match", cached.get().etag());
+            }
+            if (cached.get().lastModified() != null) {
+                requestBuilder.header("If-Modified-Since", cached.get().lastModified());
+            }
+        }
+        HttpRequest request = requestBuilder.build();
 
-        int status;
+        HttpResponse<InputStream> response;
         try {
-            status = connection.getResponseCode();
+            response = m_httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
         } catch (IOException ex) {
             LOGGER.warn(
                     "URL upload fetch failed: user={} host={}",
@@ -56,36 +189,57 @@ public class UrlImageDownloader {
                     FileStorage.safeLogValue(uri.getHost())
             );
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Failed to fetch URL");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("URL download interrupted", ex);
         }
 
-        if (status / 100 != 2) {
-            LOGGER.warn(
-                    "URL upload rejected (non-OK status): user={} host={} status={}",
-                    FileStorage.safeLogValue(username),
-                    FileStorage.safeLogValue(uri.getHost()),
-                    status
-            );
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "URL returned non-OK status");
-        }
+        try (InputStream in = response.body()) {
+            int status = response.statusCode();
+            if (status == 304 && cached.isPresent()) {
+                try (InputStream cachedContent = m_cache.openContent(cached.get())) {
+                    if (cachedContent != null) {
+                        m_cache.revalidated(cached.get());
+                        String stored = m_fileStorage.storeUploadFromStream(cachedContent, cached.get().filename(), username, cached.get().contentType());
+                        LOGGER.info("URL upload stored from cache: user={} urlHost={} stored={}", FileStorage.safeLogValue(username), FileStorage.safeLogValue(uri.getHost()), FileStorage.safeLogValue(stored));
+                        return stored;
+                    }
+                }
+                // evicted while revalidating: download it unconditionally
+                return fetchAndStore(uri, username, deadlineNanos, false);
+            }
+            if (status / 100 != 2) {
+                LOGGER.warn(
+                        "URL upload rejected (non-OK status): user={} host={} status={}",
+                        FileStorage.safeLogValue(username),
+                        FileStorage.safeLogValue(uri.getHost()),
+                        status
+                );
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "URL returned non-OK status");
+            }
 
-        long contentLength = connection.getContentLengthLong();
-        if (contentLength > FileStorage.MAX_UPLOAD_BYTES) {
-            LOGGER.warn(
-                    "URL upload rejected (content-length too large): user={} host={} len={}",
-                    FileStorage.safeLogValue(username),
-                    FileStorage.safeLogValue(uri.getHost()),
-                    contentLength
-            );
-            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File too large");
-        }
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (contentLength > FileStorage.MAX_UPLOAD_BYTES) {
+                LOGGER.warn(
+                        "URL upload rejected (content-length too large): user={} host={} len={}",
+                        FileStorage.safeLogValue(username),
+                        FileStorage.safeLogValue(uri.getHost()),
+                        contentLength
+                );
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File too large");
+            }
 
-        String contentType = normalizeContentType(connection.getContentType());
-        String filename = guessFilename(uri, contentType);
+            String contentType = normalizeContentType(response.headers().firstValue("Content-Type").orElse(null));
+            String filename = guessFilename(uri, contentType);
 
-        try (InputStream in = connection.getInputStream()) {
-            FileStorage storage = new FileStorage(Path.of("uploads").toAbsolutePath().normalize());
             // storeUploadFromStream enforces MAX_UPLOAD_BYTES while streaming.
-            String stored = storage.storeUploadFromStream(in, filename, username, contentType);
+            String stored = m_fileStorage.storeUploadFromStream(in, filename, username, contentType);
+            if (response.headers().allValues("Cache-Control").stream().noneMatch(v -> v.toLowerCase(Locale.ROOT).contains("no-store"))) {
+                m_cache.put(uri, stored,
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null),
+                        contentType, filename, Files.size(m_fileStorage.resolve(stored)));
+            }
             LOGGER.info("URL upload stored: user={} urlHost={} stored={}", FileStorage.safeLogValue(username), FileStorage.safeLogValue(uri.getHost()), FileStorage.safeLogValue(stored));
             return stored;
         } catch (ResponseStatusException ex) {
@@ -99,8 +253,6 @@ public class UrlImageDownloader {
         } catch (IOException ex) {
             LOGGER.warn("URL upload failed: user={} urlHost={}", FileStorage.safeLogValue(username), FileStorage.safeLogValue(uri.getHost()), ex);
             throw ex;
-        } finally {
-            connection.disconnect();
         }
     }
 
@@ -153,49 +305,29 @@ public class UrlImageDownloader {
         return uri;
     }
 
-    private static void validateHostResolvesToPublicIps(URI uri, String username) {
+    private List<InetAddress> validateHostResolvesToPublicIps(URI uri, String username) {
         String host = uri.getHost();
-        InetAddress[] resolved;
-        try {
-            resolved = InetAddress.getAllByName(host);
-        } catch (IOException ex) {
-            LOGGER.warn(
-                    "URL upload rejected (DNS failure): user={} host={}",
-                    FileStorage.safeLogValue(username),
-                    FileStorage.safeLogValue(host)
-            );
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Host resolution failed");
-        }
-
-        if (resolved.length == 0) {
-            LOGGER.warn(
-                    "URL upload rejected (DNS empty): user={} host={}",
-                    FileStorage.safeLogValue(username),
-                    FileStorage.safeLogValue(host)
-            );
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Host resolution failed");
-        }
-
-        for (InetAddress addr : resolved) {
-            if (!isPublicAddress(addr)) {
+        HostVerdictCache.Verdict verdict = m_hostVerdicts.verdictFor(host);
+        return switch (verdict.outcome()) {
+            case UNRESOLVED -> {
+                LOGGER.warn(
+                        "URL upload rejected (DNS failure): user={} host={}",
+                        FileStorage.safeLogValue(username),
+                        FileStorage.safeLogValue(host)
+                );
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Host resolution failed");
+            }
+            case BLOCKED -> {
                 LOGGER.warn(
                         "URL upload rejected (SSRF blocked): user={} host={} ip={}",
                         FileStorage.safeLogValue(username),
                         FileStorage.safeLogValue(host),
-                        FileStorage.safeLogValue(addr.getHostAddress())
+                        FileStorage.safeLogValue(verdict.blockedAddress().map(InetAddress::getHostAddress).orElse(""))
                 );
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Blocked host address");
             }
-        }
-    }
-
-    private static boolean isPublicAddress(InetAddress addr) {
-        // Defense-in-depth: block all special/private ranges (IPv4+IPv6)
-        return !(addr.isAnyLocalAddress()
-                || addr.isLoopbackAddress()
-                || addr.isLinkLocalAddress()
-                || addr.isSiteLocalAddress()
-                || addr.isMulticastAddress());
+            case PUBLIC -> verdict.addresses();
+        };
     }
 
     private static String guessFilename(URI uri, String contentType) {
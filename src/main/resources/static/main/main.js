@@ -52,21 +52,76 @@ document.addEventListener("DOMContentLoaded", () => {
     });
 
     document.getElementById('addTaskButton').addEventListener('click', redirectToCreate);
-    fetchTasks();
+    fetchTasks().then(subscribeToTaskEvents);
 });
 
+const TASKS_PAGE_SIZE = 100;
+let displayedTasks = [];
+let tasksRevision = null;
+
 async function fetchTasks() {
 	try {
-		const response = await fetch(`${baseUrl}/tasks`);
-		if (!response.ok) throw new Error(`Error: ${response.status}`);
-		
-		const tasks = await response.json();
-		displayTasks(tasks);
+		// /tasks is paginated; follow the X-Next-Cursor header until the last page
+		const tasks = [];
+		let cursor = null;
+		let revision = null;
+		do {
+			const params = new URLSearchParams({ limit: TASKS_PAGE_SIZE });
+			if (cursor) params.set("cursor", cursor);
+			const response = await fetch(`${baseUrl}/tasks?${params}`);
+			if (!response.ok) throw new Error(`Error: ${response.status}`);
+
+			tasks.push(...await response.json());
+			cursor = response.headers.get("X-Next-Cursor");
+			revision ??= response.headers.get("X-Tasks-Revision");
+		} while (cursor);
+		displayedTasks = tasks;
+		tasksRevision = revision;
+		displayTasks(displayedTasks);
 	} catch (error) {
 		console.error('Failed to fetch tasks:', error);
 	}
 }
 
+// Fetches only the tasks changed since the last load and merges them into the displayed list
+async function refreshTasks() {
+	if (tasksRevision === null) {
+		return fetchTasks();
+	}
+	try {
+		const response = await fetch(`${baseUrl}/tasks/changes?since=${encodeURIComponent(tasksRevision)}`);
+		if (!response.ok) throw new Error(`Error: ${response.status}`);
+
+		const changes = await response.json();
+		changes.tasks.forEach(changed => {
+			const idx = displayedTasks.findIndex(t => t.taskid === changed.taskid);
+			if (idx === -1) {
+				displayedTasks.push(changed);
+			} else {
+				displayedTasks[idx] = changed;
+			}
+		});
+		tasksRevision = changes.revision;
+		displayTasks(displayedTasks);
+	} catch (error) {
+		console.error('Failed to refresh tasks:', error);
+	}
+}
+
+// Server-pushed change notifications; each one triggers a delta refresh, which also covers events
+// the server dropped for a slow connection. EventSource reconnects on its own after errors.
+function subscribeToTaskEvents() {
+	const events = new EventSource(`${baseUrl}/tasks/events`);
+	let pending = null;
+	const onChange = () => {
+		// coalesce bursts of events into a single /tasks/changes request
+		if (pending === null) {
+			pending = setTimeout(() => { pending = null; refreshTasks(); }, 200);
+		}
+	};
+	["task-created", "task-done", "comment-added", "comment-updated"].forEach(name => events.addEventListener(name, onChange));
+}
+
 async function markTaskAsDone(taskId, checkbox) {
 	try {
 		const response = await sendPost("/done", { taskid: taskId });
@@ -216,9 +271,21 @@ function createComments(taskid, comments) {
 
         if (comment.image) {
             const img = document.createElement("img");
-            img.src = `${baseUrl}/image?file=${comment.image}`;
+            // a thumbnail in the list; the full image opens on click
+            img.src = `${baseUrl}/image?file=${comment.image}&size=512`;
             img.alt = "Comment Image";
-            commentElement.appendChild(img);
+            const fullImageLink = document.createElement("a");
+            fullImageLink.href = `${baseUrl}/image?file=${comment.image}`;
+            fullImageLink.target = "_blank";
+            fullImageLink.appendChild(img);
+            commentElement.appendChild(fullImageLink);
+        }
+        else if (comment.fetchState === "PENDING" || comment.fetchState === "FAILED") {
+            // image URL still downloading (a comment-updated event refreshes it), or the download failed
+            const fetchNote = document.createElement("span");
+            fetchNote.className = "fetch-state";
+            fetchNote.textContent = (comment.fetchState === "PENDING") ? "Loading image..." : "Image could not be fetched";
+            commentElement.appendChild(fetchNote);
         }
 
         const textElement = document.createElement("span");
@@ -323,7 +390,7 @@ async function submitComment(taskId, textBox, imageUrlInput, parentCommentId = n
         if (response.ok) {
             textBox.value = ""; // Clear text box
             imageUrlInput.value = ""; // Clear URL input
-            fetchTasks(); // Refresh tasks to show the new comment
+            refreshTasks(); // Refresh changed tasks to show the new comment
         } else {
             throw new Error(`Error: ${response.status}`);
         }
@@ -0,0 +1,59 @@
+package com.securefromscratch.busybee.boxedpath;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoxedChannelsTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void channelsAndStreamsWorkThroughTheSandbox() throws Exception {
+        PathSandbox box = PathSandbox.boxroot(temp);
+        BoxedPath file = box.resolve("data.bin");
+        byte[] content = "sandboxed channel content".getBytes(StandardCharsets.US_ASCII);
+
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW)) {
+            out.write(content);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(7);
+            channel.read(buffer, 10);
+            assertEquals("channel", new String(buffer.array(), StandardCharsets.US_ASCII));
+
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, content.length);
+            assertEquals('s', mapped.get(0));
+        }
+
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(content.length);
+            assertEquals(content.length, channel.read(buffer, 0).get());
+            assertArrayEquals(content, buffer.array());
+        }
+
+        assertArrayEquals(content, Files.readAllBytes(temp.resolve("data.bin")));
+    }
+
+    @Test
+    void escapingPathsAreRejectedBeforeAnyChannelIsOpened() {
+        PathSandbox box = PathSandbox.boxroot(temp.resolve("box"));
+        assertThrows(SecurityException.class, () -> FileChannel.open(box.resolve("../outside.bin"), StandardOpenOption.READ));
+    }
+}
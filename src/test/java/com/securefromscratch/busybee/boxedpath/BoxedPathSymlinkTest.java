@@ -0,0 +1,63 @@
+package com.securefromscratch.busybee.boxedpath;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoxedPathSymlinkTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void symlinkEscapeIsRejected() throws Exception {
+        Path sandbox = Files.createDirectories(temp.resolve("box"));
+        Path outside = Files.createDirectories(temp.resolve("outside"));
+        Files.createSymbolicLink(sandbox.resolve("link"), outside);
+
+        PathSandbox box = PathSandbox.boxroot(sandbox);
+        assertThrows(SecurityException.class, () -> box.resolve("link/secret.txt"));
+    }
+
+    @Test
+    void directorySwappedForSymlinkAfterCachingIsRejected() throws Exception {
+        Path sandbox = Files.createDirectories(temp.resolve("box"));
+        Path outside = Files.createDirectories(temp.resolve("outside"));
+        Path dir = Files.createDirectories(sandbox.resolve("dir"));
+        Files.writeString(dir.resolve("file.txt"), "inside");
+
+        PathSandbox box = PathSandbox.boxroot(sandbox);
+        // warms the cache for box/dir and box/dir/file.txt
+        assertNotNull(box.resolve("dir/file.txt"));
+
+        Files.delete(dir.resolve("file.txt"));
+        Files.delete(dir);
+        Files.createSymbolicLink(dir, outside);
+
+        // no waiting for the watcher: a cached entry is re-checked before it is used
+        assertThrows(SecurityException.class, () -> box.resolve("dir/file.txt"));
+    }
+
+    @Test
+    void symlinkWhoseTargetChainChangesAfterCachingIsRejected() throws Exception {
+        Path sandbox = Files.createDirectories(temp.resolve("box"));
+        Path outside = Files.createDirectories(temp.resolve("outside"));
+        Path target = Files.createDirectories(sandbox.resolve("b").resolve("c"));
+        // box/a -> b/c: the link itself never changes, only what b/c is
+        Files.createSymbolicLink(sandbox.resolve("a"), Path.of("b", "c"));
+
+        PathSandbox box = PathSandbox.boxroot(sandbox);
+        // only box/a is looked at, so nothing is watched below b where the swap happens
+        assertNotNull(box.resolve("a"));
+
+        Files.delete(target);
+        Files.createSymbolicLink(target, outside);
+
+        assertThrows(SecurityException.class, () -> box.resolve("a"));
+        // a file about to be created is checked only through its parents
+        assertThrows(SecurityException.class, () -> box.resolve("a/new.txt"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.securefromscratch.busybee.boxedpath;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathSandboxTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void boxrootIsIdempotent() {
+        PathSandbox first = PathSandbox.boxroot(temp);
+        assertSame(first, PathSandbox.boxroot(temp.resolve("x").resolve("..")));
+        assertSame(first, PathSandbox.boxroot(temp.toString()));
+        assertNotSame(first, PathSandbox.boxroot(SandboxJailbreak.UNCHECKED_SYMLINKS, temp));
+    }
+
+    @Test
+    void concurrentFirstUseGivesOneSandbox() throws Exception {
+        Path root = temp.resolve("concurrent");
+        int threads = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            List<Callable<PathSandbox>> calls = IntStream.range(0, threads)
+                    .<Callable<PathSandbox>>mapToObj(i -> () -> {
+                        start.await();
+                        return PathSandbox.boxroot(root);
+                    })
+                    .toList();
+            List<Future<PathSandbox>> results = calls.stream().map(executor::submit).toList();
+            start.countDown();
+            PathSandbox expected = results.get(0).get();
+            for (Future<PathSandbox> result : results) {
+                assertSame(expected, result.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+import com.securefromscratch.busybee.boxedpath.PathSandbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFilesTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void concurrentReadersShareOneMappingUntilTheLastIsDone() throws Exception {
+        PathSandbox box = PathSandbox.boxroot(temp);
+        BoxedPath pdf = box.resolve("report.pdf");
+        byte[] content = new byte[4096];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+        Files.write(pdf, content);
+        MappedFiles mappedFiles = new MappedFiles(1024);
+        assertFalse(mappedFiles.maps(1023));
+        assertTrue(mappedFiles.maps(content.length));
+
+        try (FileChannel first = FileChannel.open(pdf, StandardOpenOption.READ);
+             FileChannel second = FileChannel.open(pdf, StandardOpenOption.READ)) {
+            MappedFiles.Mapping a = mappedFiles.acquire(pdf, "\"etag\"", first, first.size());
+            MappedFiles.Mapping b = mappedFiles.acquire(pdf, "\"etag\"", second, second.size());
+            assertEquals(1, mappedFiles.mappedCount());
+            assertEquals(content.length, b.size());
+
+            ByteBuffer slice = a.slice(1000, 10);
+            assertEquals(10, slice.remaining());
+            assertEquals((byte) 1000, slice.get());
+            assertEquals((byte) 1000, b.slice(1000, 1).get());
+
+            a.close();
+            a.close();
+            assertEquals(1, mappedFiles.mappedCount());
+            b.close();
+            assertEquals(0, mappedFiles.mappedCount());
+        }
+    }
+}
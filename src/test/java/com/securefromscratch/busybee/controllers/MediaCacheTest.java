@@ -0,0 +1,87 @@
+package com.securefromscratch.busybee.controllers;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+import com.securefromscratch.busybee.boxedpath.PathSandbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaCacheTest {
+    @TempDir
+    Path temp;
+
+    private static ByteBuffer missAndLoad(MediaCache cache, BoxedPath path, String etag) throws Exception {
+        assertNull(cache.get(path, etag));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return cache.load(path, etag, channel, channel.size());
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.get(out);
+        return out;
+    }
+
+    @Test
+    void filesAreCachedOnTheirSecondMissAndServedUntilTheirEtagChanges() throws Exception {
+        PathSandbox box = PathSandbox.boxroot(temp);
+        BoxedPath thumb = box.resolve("thumb.jpg");
+        Files.write(thumb, new byte[]{1, 2, 3, 4});
+        MediaCache cache = new MediaCache(1024, 256);
+
+        assertNull(missAndLoad(cache, thumb, "\"a\""));
+        ByteBuffer loaded = missAndLoad(cache, thumb, "\"a\"");
+        assertTrue(loaded.isDirect());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, bytes(loaded));
+
+        Files.write(thumb, new byte[]{9, 9});
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, bytes(cache.get(thumb, "\"a\"")));
+        assertNull(cache.get(thumb, "\"b\""));
+        assertEquals(0, cache.stats().bytes());
+
+        MediaCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(3, stats.misses());
+        assertEquals(1, stats.loads());
+    }
+
+    @Test
+    void leastRecentlyUsedFilesAreEvictedToStayWithinTheBudget() throws Exception {
+        PathSandbox box = PathSandbox.boxroot(temp);
+        BoxedPath first = box.resolve("first.png");
+        BoxedPath second = box.resolve("second.png");
+        BoxedPath third = box.resolve("third.png");
+        BoxedPath large = box.resolve("large.png");
+        for (BoxedPath path : new BoxedPath[]{first, second, third}) {
+            Files.write(path, new byte[100]);
+        }
+        Files.write(large, new byte[300]);
+        MediaCache cache = new MediaCache(250, 200);
+
+        missAndLoad(cache, first, "1");
+        assertNotNull(missAndLoad(cache, first, "1"));
+        missAndLoad(cache, second, "2");
+        assertNotNull(missAndLoad(cache, second, "2"));
+        assertNotNull(cache.get(first, "1"));
+        missAndLoad(cache, third, "3");
+        assertNotNull(missAndLoad(cache, third, "3"));
+
+        assertNotNull(cache.get(first, "1"));
+        assertNull(cache.get(second, "2"));
+        assertNull(missAndLoad(cache, large, "4"));
+        assertNull(missAndLoad(cache, large, "4"));
+
+        MediaCache.Stats stats = cache.stats();
+        assertEquals(1, stats.evictions());
+        assertEquals(2, stats.entries());
+        assertEquals(200, stats.bytes());
+    }
+}
@@ -6,11 +6,15 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 
-@SpringBootTest
+// fresh journal per test run, so tests start from the initial data and never touch ./data
+@SpringBootTest(properties = "busybee.tasks.journal-dir=build/test-journal/${random.uuid}")
 @AutoConfigureMockMvc
 class MediaControllerAuthorizationTest {
     private static final String EXISTING_IMAGE = "camera/wikipedia_Space-saving_closet.JPG";
@@ -25,6 +29,15 @@ class MediaControllerAuthorizationTest {
                 .andExpect(header().string("Content-Type", org.hamcrest.Matchers.startsWith("image/")));
     }
 
+    @Test
+    void imageIsStreamedWhole() throws Exception {
+        byte[] onDisk = Files.readAllBytes(Path.of("uploads", EXISTING_IMAGE));
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue("Content-Length", onDisk.length))
+                .andExpect(content().bytes(onDisk));
+    }
+
     @Test
     void nonOwnerNonAssigneeGetsForbidden() throws Exception {
         mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).with(user("Rony")))
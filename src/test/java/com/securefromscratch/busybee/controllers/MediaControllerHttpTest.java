@@ -0,0 +1,150 @@
+package com.securefromscratch.busybee.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// fresh journal per test run, so tests start from the initial data and never touch ./data
+@SpringBootTest(properties = "busybee.tasks.journal-dir=build/test-journal/${random.uuid}")
+@AutoConfigureMockMvc
+class MediaControllerHttpTest {
+    private static final String EXISTING_IMAGE = "camera/wikipedia_Space-saving_closet.JPG";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private static byte[] onDisk() throws Exception {
+        return Files.readAllBytes(Path.of("uploads", EXISTING_IMAGE));
+    }
+
+    @Test
+    void singleRangeReturnsPartialContent() throws Exception {
+        byte[] file = onDisk();
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("Range", "bytes=10-19").with(user("Dor")))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().string("Content-Range", "bytes 10-19/" + file.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(file, 10, 20)));
+    }
+
+    @Test
+    void suffixRangeReturnsTail() throws Exception {
+        byte[] file = onDisk();
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("Range", "bytes=-5").with(user("Dor")))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes(Arrays.copyOfRange(file, file.length - 5, file.length)));
+    }
+
+    @Test
+    void multipleRangesUseMultipartByteranges() throws Exception {
+        byte[] file = onDisk();
+        MvcResult result = mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("Range", "bytes=0-3,100-103").with(user("Dor")))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Type", startsWith("multipart/byteranges; boundary=")))
+                .andReturn();
+        String body = result.getResponse().getContentAsString(StandardCharsets.ISO_8859_1);
+        assertTrue(body.contains("Content-Range: bytes 0-3/" + file.length));
+        assertTrue(body.contains("Content-Range: bytes 100-103/" + file.length));
+        assertTrue(body.contains(new String(Arrays.copyOfRange(file, 100, 104), StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void rangeBeyondEndIsNotSatisfiable() throws Exception {
+        byte[] file = onDisk();
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("Range", "bytes=" + file.length + "-").with(user("Dor")))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */" + file.length));
+    }
+
+    @Test
+    void staleIfRangeSendsWholeFile() throws Exception {
+        byte[] file = onDisk();
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE)
+                        .header("Range", "bytes=0-9")
+                        .header("If-Range", "Mon, 01 Jan 2001 00:00:00 GMT")
+                        .with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(file));
+    }
+
+    @Test
+    void matchingEtagIsNotModified() throws Exception {
+        MvcResult first = mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", matchesPattern("\"[0-9a-f]{64}\"")))
+                .andExpect(header().string("Cache-Control", containsString("private")))
+                .andReturn();
+        String etag = first.getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("If-None-Match", etag).with(user("Dor")))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().bytes(new byte[0]));
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).header("If-None-Match", "\"other\"").with(user("Dor")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void ifRangeWithCurrentEtagKeepsRange() throws Exception {
+        String etag = mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).with(user("Dor")))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE)
+                        .header("Range", "bytes=0-9")
+                        .header("If-Range", etag)
+                        .with(user("Dor")))
+                .andExpect(status().isPartialContent());
+    }
+
+    @Test
+    void sizeReturnsDownscaledThumbnail() throws Exception {
+        byte[] thumbnail = mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).param("size", "128").with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "image/jpeg"))
+                .andExpect(header().string("Cache-Control", containsString("private")))
+                .andReturn().getResponse().getContentAsByteArray();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(128, image.getWidth());
+        assertTrue(thumbnail.length < onDisk().length);
+    }
+
+    @Test
+    void unsupportedSizeIsRejected() throws Exception {
+        mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).param("size", "300").with(user("Dor")))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void repeatedRequestsAreServedFromTheMediaCache() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            mockMvc.perform(get("/image").param("file", EXISTING_IMAGE).param("size", "128").with(user("Dor")))
+                    .andExpect(status().isOk());
+        }
+        mockMvc.perform(get("/media/cache-stats").with(user("Dor").roles("ADMIN")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").value(greaterThanOrEqualTo(1)))
+                .andExpect(jsonPath("$.entries").value(greaterThanOrEqualTo(1)));
+        mockMvc.perform(get("/media/cache-stats").with(user("Dor")))
+                .andExpect(status().isForbidden());
+    }
+}
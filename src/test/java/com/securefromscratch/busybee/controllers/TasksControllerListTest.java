@@ -0,0 +1,154 @@
+package com.securefromscratch.busybee.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.*;
+import org.springframework.test.web.servlet.MvcResult;
+import com.securefromscratch.busybee.storage.Task;
+import com.securefromscratch.busybee.storage.TasksStorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+
+// fresh journal per test run, so tests start from the initial data and never touch ./data
+@SpringBootTest(properties = "busybee.tasks.journal-dir=build/test-journal/${random.uuid}")
+@AutoConfigureMockMvc
+class TasksControllerListTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private TasksStorage tasksStorage;
+
+    @Test
+    void pagesFollowCursorWithoutDuplicates() throws Exception {
+        MvcResult first = mockMvc.perform(get("/tasks").param("limit", "1").with(user("Yariv")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(header().exists(TasksController.NEXT_CURSOR_HEADER))
+                .andReturn();
+        String firstId = com.jayway.jsonpath.JsonPath.read(first.getResponse().getContentAsString(), "$[0].taskid");
+        String cursor = first.getResponse().getHeader(TasksController.NEXT_CURSOR_HEADER);
+
+        MvcResult second = mockMvc.perform(get("/tasks").param("limit", "1").param("cursor", cursor).with(user("Yariv")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andReturn();
+        String secondId = com.jayway.jsonpath.JsonPath.read(second.getResponse().getContentAsString(), "$[0].taskid");
+        assertNotEquals(firstId, secondId);
+    }
+
+    @Test
+    void commentCountsOnly() throws Exception {
+        mockMvc.perform(get("/tasks").param("comments", "count").param("createdBy", "Dor").with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].createdBy", everyItem(is("Dor"))))
+                .andExpect(jsonPath("$[0].comments").value(nullValue()))
+                .andExpect(jsonPath("$[0].commentCount").isNumber());
+    }
+
+    @Test
+    void invalidCursorIsRejected() throws Exception {
+        mockMvc.perform(get("/tasks").param("cursor", "not-a-cursor").with(user("Dor")))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void changesReturnOnlyTasksModifiedSinceRevision() throws Exception {
+        MvcResult listing = mockMvc.perform(get("/tasks").with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(TasksController.REVISION_HEADER))
+                .andReturn();
+        String revision = listing.getResponse().getHeader(TasksController.REVISION_HEADER);
+
+        mockMvc.perform(get("/tasks/changes").param("since", revision).with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks", hasSize(0)));
+
+        Task closetTask = tasksStorage.getVisibleTo("Dor").stream()
+                .filter(t -> t.name().equals("Change closet from summer to winter"))
+                .findFirst().orElseThrow();
+        tasksStorage.addComment(closetTask, "delta sync", "Dor", Optional.empty());
+
+        mockMvc.perform(get("/tasks/changes").param("since", revision).with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks[*].taskid", contains(closetTask.taskid().toString())));
+        mockMvc.perform(get("/tasks/changes").param("since", revision).with(user("Nobody")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tasks", hasSize(0)));
+    }
+
+    @Test
+    void pollingWhileTasksAreAddedMissesNone() throws Exception {
+        String revision = mockMvc.perform(get("/tasks").with(user("Dor")))
+                .andReturn().getResponse().getHeader(TasksController.REVISION_HEADER);
+
+        int added = 200;
+        Set<String> addedIds = ConcurrentHashMap.newKeySet();
+        Thread writer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < added; ++i) {
+                try {
+                    addedIds.add(tasksStorage.add("Polled task " + i, "desc", LocalDate.now().plusDays(1), "Dor", new String[]{}).toString());
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        });
+
+        // follow the since= chain the way a client does, while the writer runs and once more after it is done
+        Set<String> seenIds = new HashSet<>();
+        boolean writerDone = false;
+        while (!writerDone) {
+            writerDone = !writer.isAlive();
+            String body = mockMvc.perform(get("/tasks/changes").param("since", revision).with(user("Dor")))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            seenIds.addAll(com.jayway.jsonpath.JsonPath.<List<String>>read(body, "$.tasks[*].taskid"));
+            revision = com.jayway.jsonpath.JsonPath.read(body, "$.revision").toString();
+        }
+        writer.join();
+
+        assertEquals(added, addedIds.size());
+        assertTrue(seenIds.containsAll(addedIds));
+    }
+
+    @Test
+    void eventsArePushedOnlyToUsersWhoCanSeeTheTask() throws Exception {
+        MvcResult dor = mockMvc.perform(get("/tasks/events").with(user("Dor")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult nobody = mockMvc.perform(get("/tasks/events").with(user("Nobody")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        Task stickerTask = tasksStorage.getVisibleTo("Dor").stream()
+                .filter(t -> t.name().equals("Get sticker for car"))
+                .findFirst().orElseThrow();
+        tasksStorage.addComment(stickerTask, "pushed", "Dor", Optional.empty());
+
+        // events are sent from a background thread, and an event's name and data are written separately
+        String taskid = stickerTask.taskid().toString();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!dor.getResponse().getContentAsString().contains(taskid) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(dor.getResponse().getContentAsString().contains("event:comment-added"));
+        assertTrue(dor.getResponse().getContentAsString().contains(taskid));
+        assertFalse(nobody.getResponse().getContentAsString().contains(taskid));
+    }
+}
@@ -0,0 +1,42 @@
+package com.securefromscratch.busybee.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+
+// fresh journal per test run, so tests start from the initial data and never touch ./data
+@SpringBootTest(properties = "busybee.tasks.journal-dir=build/test-journal/${random.uuid}")
+@AutoConfigureMockMvc
+class TasksControllerVisibilityTest {
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void userSeesOnlyCreatedOrAssignedTasks() throws Exception {
+        mockMvc.perform(get("/tasks").with(user("Dor")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", hasItems("Get sticker for car", "Change closet from summer to winter")))
+                .andExpect(jsonPath("$[*].name", not(hasItem("Buy ingredients for Caprese Sandwich"))));
+    }
+
+    @Test
+    void userWithoutTasksSeesNothing() throws Exception {
+        mockMvc.perform(get("/tasks").with(user("Nobody")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    void adminSeesAllTasks() throws Exception {
+        mockMvc.perform(get("/tasks").with(user("Nobody").roles("ADMIN")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", hasItems("Get sticker for car", "Buy ingredients for Caprese Sandwich")));
+    }
+}
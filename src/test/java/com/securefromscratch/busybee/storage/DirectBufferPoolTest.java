@@ -0,0 +1,32 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectBufferPoolTest {
+    @Test
+    void buffersAreReusedAndOnlyUpToTheIdleLimitIsKept() {
+        DirectBufferPool pool = new DirectBufferPool(1024, 1);
+
+        ByteBuffer first;
+        try (DirectBufferPool.Lease lease = pool.acquire()) {
+            first = lease.buffer();
+            assertTrue(first.isDirect());
+            assertEquals(1024, first.capacity());
+            first.put((byte) 1).flip();
+        }
+        assertEquals(1, pool.idleCount());
+
+        try (DirectBufferPool.Lease a = pool.acquire(); DirectBufferPool.Lease b = pool.acquire()) {
+            assertSame(first, a.buffer());
+            assertEquals(0, a.buffer().position());
+            assertEquals(1024, a.buffer().limit());
+            assertNotSame(first, b.buffer());
+            assertEquals(0, pool.idleCount());
+        }
+        assertEquals(1, pool.idleCount());
+    }
+}
@@ -0,0 +1,80 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FileStorageDedupTest {
+    private static final byte[] PNG = {
+            (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+            0, 0, 0, 0x0D, 'I', 'H', 'D', 'R', 1, 2, 3, 4
+    };
+
+    @TempDir
+    Path root;
+
+    private static long countBlobs(Path root) throws Exception {
+        try (Stream<Path> files = Files.walk(root.resolve(".blobs"))) {
+            return files.filter(Files::isRegularFile).filter(p -> !p.getParent().getFileName().toString().equals("tmp")).count();
+        }
+    }
+
+    @Test
+    void identicalUploadsShareOneBlob() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        String first = storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "a.png", "Dor", "image/png");
+        String second = storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "b.png", "Yariv", "image/png");
+
+        assertNotEquals(first, second);
+        assertArrayEquals(PNG, Files.readAllBytes(root.resolve(first)));
+        assertTrue(Files.isSameFile(root.resolve(first), root.resolve(second)));
+        assertEquals(1, countBlobs(root));
+
+        storage.cleanupStoredUpload(first);
+        assertFalse(Files.exists(root.resolve(first)));
+        assertArrayEquals(PNG, Files.readAllBytes(root.resolve(second)));
+        assertEquals(1, countBlobs(root));
+
+        storage.cleanupStoredUpload(second);
+        assertEquals(0, countBlobs(root));
+    }
+
+    @Test
+    void rejectedUploadLeavesNothingBehind() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        byte[] notAnImage = "plain text, not a png".getBytes();
+        assertThrows(org.springframework.web.server.ResponseStatusException.class,
+                () -> storage.storeUploadFromStream(new ByteArrayInputStream(notAnImage), "c.png", "Dor", "image/png"));
+
+        assertEquals(0, countBlobs(root));
+        try (Stream<Path> temps = Files.list(root.resolve(".blobs").resolve("tmp"))) {
+            assertEquals(0, temps.count());
+        }
+    }
+
+    private static boolean hasRecordedHash(Path file) throws Exception {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        return view.list().contains("busybee.sha256");
+    }
+
+    @Test
+    void seededFilesAreHashedAtStartupAndReadingAHashNeverWrites() throws Exception {
+        Path seeded = Files.createDirectories(root.resolve("camera")).resolve("seeded.png");
+        Files.write(seeded, PNG);
+        FileStorage storage = new FileStorage(root);
+        assumeTrue(hasRecordedHash(seeded), "no user-defined attributes on this file system");
+
+        Path later = root.resolve("camera").resolve("later.png");
+        Files.write(later, PNG);
+        assertEquals(FileStorage.contentHash(storage.resolve("camera/seeded.png")), FileStorage.contentHash(storage.resolve("camera/later.png")));
+        assertFalse(hasRecordedHash(later));
+    }
+}
@@ -0,0 +1,103 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileStorageQuotaTest {
+    private static final byte[] PNG = {
+            (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+            0, 0, 0, 0x0D, 'I', 'H', 'D', 'R', 1, 2, 3, 4
+    };
+    private static final int MAX_FILES_PER_USER = 50;
+
+    @TempDir
+    Path root;
+
+    private static long countFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    @Test
+    void concurrentUploadsDoNotOvershootFileLimit() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        List<Future<String>> uploads = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < MAX_FILES_PER_USER + 20; ++i) {
+                uploads.add(pool.submit(() -> storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "a.png", "Dor", "image/png")));
+            }
+        }
+
+        int stored = 0;
+        int rejected = 0;
+        for (Future<String> upload : uploads) {
+            try {
+                upload.get();
+                ++stored;
+            } catch (ExecutionException ex) {
+                ResponseStatusException cause = assertInstanceOf(ResponseStatusException.class, ex.getCause());
+                assertEquals(HttpStatus.TOO_MANY_REQUESTS, cause.getStatusCode());
+                ++rejected;
+            }
+        }
+        assertEquals(MAX_FILES_PER_USER, stored);
+        assertEquals(20, rejected);
+        assertEquals(MAX_FILES_PER_USER, countFiles(root.resolve("Dor")));
+    }
+
+    @Test
+    void existingFilesAndCleanupAreCounted() throws Exception {
+        Path userDir = Files.createDirectories(root.resolve("Yariv"));
+        for (int i = 0; i < MAX_FILES_PER_USER; ++i) {
+            Files.write(userDir.resolve("old-" + i + ".png"), PNG);
+        }
+
+        FileStorage storage = new FileStorage(root);
+        assertThrows(ResponseStatusException.class,
+                () -> storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "a.png", "Yariv", "image/png"));
+
+        storage.cleanupStoredUpload("Yariv/old-0.png");
+        assertNotNull(storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "a.png", "Yariv", "image/png"));
+    }
+
+    @Test
+    void storedSizeIsTheBytesReceivedNotTheAnnouncedSize() throws Exception {
+        FileStorage storage = new FileStorage(root);
+
+        // larger than several copy buffers, so the file is written in more than one chunk
+        byte[] pdf = new byte[300 * 1024 + 17];
+        new Random(7).nextBytes(pdf);
+        System.arraycopy("%PDF-1.7".getBytes(StandardCharsets.US_ASCII), 0, pdf, 0, 8);
+        String storedPdf = storage.storeUpload(new MockMultipartFile("file", "report.pdf", "application/pdf", pdf), "Dor");
+        assertArrayEquals(pdf, Files.readAllBytes(root.resolve(storedPdf)));
+
+        // the multipart size only sizes the quota reservation; the stored file is what the body actually held
+        MockMultipartFile announcedLarger = new MockMultipartFile("file", "a.png", "image/png", PNG) {
+            @Override
+            public long getSize() {
+                return 64 * 1024;
+            }
+        };
+        String storedPng = storage.storeUpload(announcedLarger, "Dor");
+        assertArrayEquals(PNG, Files.readAllBytes(root.resolve(storedPng)));
+    }
+}
@@ -0,0 +1,35 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// uploads go to a throwaway directory instead of ./uploads
+@SpringBootTest(properties = {
+        "busybee.tasks.journal-dir=build/test-journal/${random.uuid}",
+        "busybee.uploads.dir=build/test-uploads/${random.uuid}"
+})
+class FileStorageServiceTest {
+    private static final byte[] PNG = {
+            (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+            0, 0, 0, 0x0D, 'I', 'H', 'D', 'R', 1, 2, 3, 4
+    };
+
+    @Autowired
+    private FileStorage fileStorage;
+
+    @Test
+    void storesUnderConfiguredRoot() throws Exception {
+        String stored = fileStorage.storeUploadFromStream(new ByteArrayInputStream(PNG), "a.png", "Dor", "image/png");
+
+        Path onDisk = Path.of(fileStorage.resolve(stored).toString()).toAbsolutePath();
+        assertTrue(onDisk.startsWith(Path.of("build", "test-uploads").toAbsolutePath()));
+        assertArrayEquals(PNG, Files.readAllBytes(onDisk));
+    }
+}
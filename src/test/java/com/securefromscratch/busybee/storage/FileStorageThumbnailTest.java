@@ -0,0 +1,90 @@
+package com.securefromscratch.busybee.storage;
+
+import com.securefromscratch.busybee.boxedpath.BoxedPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileStorageThumbnailTest {
+    @TempDir
+    Path root;
+
+    private static byte[] png(int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void concurrentRequestsShareOneRender() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        try {
+            String stored = storage.storeUploadFromStream(new ByteArrayInputStream(png(1600, 1200)), "a.png", "Dor", "image/png");
+            BoxedPath original = storage.resolve(stored);
+
+            int requests = 8;
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService clients = Executors.newFixedThreadPool(requests);
+            try {
+                List<Future<BoxedPath>> results = new ArrayList<>();
+                for (int i = 0; i < requests; ++i) {
+                    results.add(clients.submit(() -> {
+                        start.await();
+                        return storage.thumbnail(original, 128);
+                    }));
+                }
+                start.countDown();
+                BoxedPath first = results.get(0).get();
+                for (Future<BoxedPath> result : results) {
+                    assertEquals(first, result.get());
+                }
+                assertNotEquals(original, first);
+                assertEquals(128, ImageIO.read(Files.newInputStream(first)).getWidth());
+            } finally {
+                clients.shutdownNow();
+            }
+            assertEquals(1, storage.thumbnailsRendered());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void imageDeclaringTooManyPixelsIsServedAsItIs() throws Exception {
+        // a seeded file whose header declares 9000x8000 (72M pixels); uploads like it are rejected outright
+        byte[] bomb = png(600, 400);
+        bomb[16] = 0;
+        bomb[17] = 0;
+        bomb[18] = (byte) (9000 >> 8);
+        bomb[19] = (byte) (9000 & 0xFF);
+        bomb[20] = 0;
+        bomb[21] = 0;
+        bomb[22] = (byte) (8000 >> 8);
+        bomb[23] = (byte) (8000 & 0xFF);
+        Files.createDirectories(root.resolve("seed"));
+        Files.write(root.resolve("seed").resolve("bomb.png"), bomb);
+
+        FileStorage storage = new FileStorage(root);
+        try {
+            BoxedPath original = storage.resolve("seed/bomb.png");
+            assertEquals(original, storage.thumbnail(original, 128));
+            assertEquals(0, storage.thumbnailsRendered());
+        } finally {
+            storage.close();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HostVerdictCacheTest {
+    private static InetAddress ip(int a, int b, int c, int d) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{(byte) a, (byte) b, (byte) c, (byte) d});
+    }
+
+    @Test
+    void verdictsAreCachedUntilTheirTtlExpires() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        AtomicLong now = new AtomicLong();
+        InetAddress publicIp = ip(93, 184, 215, 14);
+        HostVerdictCache cache = new HostVerdictCache(host -> {
+            lookups.incrementAndGet();
+            return new InetAddress[]{publicIp};
+        }, now::get);
+
+        HostVerdictCache.Verdict first = cache.verdictFor("Images.Example.com");
+        assertEquals(HostVerdictCache.Outcome.PUBLIC, first.outcome());
+        assertEquals(List.of(publicIp), first.addresses());
+        assertSame(first, cache.verdictFor("images.example.com"));
+        assertEquals(1, lookups.get());
+
+        now.addAndGet(HostVerdictCache.TTL.toNanos());
+        cache.verdictFor("images.example.com");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void privateAddressesAndFailedLookupsAreRejected() throws Exception {
+        AtomicLong now = new AtomicLong();
+        InetAddress internal = ip(10, 0, 0, 7);
+        HostVerdictCache cache = new HostVerdictCache(host -> switch (host) {
+            case "rebind.example.com" -> new InetAddress[]{ip(93, 184, 215, 14), internal};
+            default -> throw new UnknownHostException(host);
+        }, now::get);
+
+        HostVerdictCache.Verdict blocked = cache.verdictFor("rebind.example.com");
+        assertEquals(HostVerdictCache.Outcome.BLOCKED, blocked.outcome());
+        assertEquals(internal, blocked.blockedAddress().orElseThrow());
+
+        assertEquals(HostVerdictCache.Outcome.UNRESOLVED, cache.verdictFor("missing.example.com").outcome());
+    }
+}
@@ -0,0 +1,27 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PinnedHostResolverProviderTest {
+    @Test
+    void pinnedHostResolvesToTheValidatedAddressesOnly() throws Exception {
+        InetAddress validated = InetAddress.getByAddress(new byte[]{93, (byte) 184, (byte) 215, 14});
+        try (PinnedHostResolverProvider.PinnedHost pinned = PinnedHostResolverProvider.pin("Pinned-Host.invalid", List.of(validated))) {
+            assertTrue(PinnedHostResolverProvider.isInstalled());
+            InetAddress[] resolved = InetAddress.getAllByName("pinned-host.invalid");
+            assertEquals(1, resolved.length);
+            assertArrayEquals(validated.getAddress(), resolved[0].getAddress());
+        }
+    }
+
+    @Test
+    void unpinnedHostsUseTheBuiltinResolver() {
+        assertThrows(UnknownHostException.class, () -> InetAddress.getAllByName("never-pinned.invalid"));
+    }
+}
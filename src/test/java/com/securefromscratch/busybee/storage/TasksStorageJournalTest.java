@@ -0,0 +1,168 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TasksStorageJournalTest {
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void mutationsSurviveRestart() throws IOException {
+        UUID taskid;
+        UUID firstComment;
+        UUID reply;
+        TasksStorage storage = new TasksStorage(journalDir.toString());
+        try {
+            taskid = storage.add("Persisted task", "desc", LocalDate.now().plusDays(3), "Yariv", new String[]{"Dor"});
+            Task t = storage.find(taskid).orElseThrow();
+            firstComment = storage.addComment(t, "first", "Dor", Optional.empty());
+            reply = storage.addComment(t, "reply", Optional.of("Dor/x.png"), Optional.empty(), "Yariv", Optional.of(firstComment));
+            storage.addComment(t, "second", "Dor", Optional.empty());
+        } finally {
+            storage.close();
+        }
+
+        TasksStorage reopened = new TasksStorage(journalDir.toString());
+        try {
+            Task t = reopened.find(taskid).orElseThrow();
+            assertEquals("Persisted task", t.name());
+            assertArrayEquals(new String[]{"Dor"}, t.responsibilityOf());
+            List<TaskComment> comments = t.comments();
+            assertEquals(3, comments.size());
+            assertEquals(firstComment, comments.get(0).commentId());
+            assertEquals(reply, comments.get(1).commentId());
+            assertEquals(1, comments.get(1).indent());
+            assertEquals(Optional.of("Dor/x.png"), comments.get(1).image());
+            assertEquals("second", comments.get(2).text());
+            assertEquals(List.of(taskid), reopened.findWithImage("Dor/x.png").stream().map(Task::taskid).toList());
+
+            reopened.removeComment(t, reply);
+            assertTrue(reopened.findWithImage("Dor/x.png").isEmpty());
+        } finally {
+            reopened.close();
+        }
+
+        reopened = new TasksStorage(journalDir.toString());
+        try {
+            assertEquals(2, reopened.find(taskid).orElseThrow().comments().size());
+            assertTrue(reopened.findWithImage("Dor/x.png").isEmpty());
+
+            reopened.markDone(taskid);
+        } finally {
+            reopened.close();
+        }
+
+        TasksStorage reopenedAgain = new TasksStorage(journalDir.toString());
+        try {
+            assertTrue(reopenedAgain.find(taskid).orElseThrow().done());
+        } finally {
+            reopenedAgain.close();
+        }
+    }
+
+    @Test
+    void tornTailIsIgnored() throws IOException {
+        UUID taskid;
+        TasksStorage storage = new TasksStorage(journalDir.toString());
+        try {
+            taskid = storage.add("Before crash", "desc", "Yariv", new String[]{"Yariv"});
+        } finally {
+            storage.close();
+        }
+
+        Path wal;
+        try (Stream<Path> files = Files.list(journalDir)) {
+            wal = files.filter(p -> p.toString().endsWith(".wal")).findFirst().orElseThrow();
+        }
+        // half-written record: length prefix promising more bytes than exist
+        Files.write(wal, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        TasksStorage reopened = new TasksStorage(journalDir.toString());
+        try {
+            assertTrue(reopened.find(taskid).isPresent());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void fetchedCommentFilesSurviveRestartAndPendingFetchesFail() throws IOException {
+        UUID taskid;
+        UUID fetched;
+        UUID interrupted;
+        TasksStorage storage = new TasksStorage(journalDir.toString());
+        try {
+            taskid = storage.add("Fetch task", "desc", LocalDate.now().plusDays(3), "Yariv", new String[]{"Dor"});
+            Task t = storage.find(taskid).orElseThrow();
+            fetched = storage.addCommentAwaitingFile(t, "with image", "Dor", Optional.empty());
+            interrupted = storage.addCommentAwaitingFile(t, "never finished", "Dor", Optional.empty());
+            assertEquals(TaskComment.FetchState.PENDING, storage.findComment(taskid, fetched).orElseThrow().fetchState());
+
+            assertTrue(storage.setCommentFile(taskid, fetched, Optional.of("Dor/y.png"), Optional.empty(), TaskComment.FetchState.NONE));
+            assertFalse(storage.setCommentFile(taskid, UUID.randomUUID(), Optional.of("Dor/z.png"), Optional.empty(), TaskComment.FetchState.NONE));
+            assertEquals(List.of(taskid), storage.findWithImage("Dor/y.png").stream().map(Task::taskid).toList());
+        } finally {
+            storage.close();
+        }
+
+        TasksStorage reopened = new TasksStorage(journalDir.toString());
+        try {
+            TaskComment done = reopened.findComment(taskid, fetched).orElseThrow();
+            assertEquals(TaskComment.FetchState.NONE, done.fetchState());
+            assertEquals(Optional.of("Dor/y.png"), done.image());
+            assertEquals(List.of(taskid), reopened.findWithImage("Dor/y.png").stream().map(Task::taskid).toList());
+            assertEquals(TaskComment.FetchState.FAILED, reopened.findComment(taskid, interrupted).orElseThrow().fetchState());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void getAllIsASnapshotThatLaterAddsDontChange() throws IOException {
+        TasksStorage storage = new TasksStorage(journalDir.toString());
+        try {
+            List<Task> before = storage.getAll();
+            int size = before.size();
+            UUID added = storage.add("Added after the snapshot", "desc", LocalDate.now().plusDays(1), "Yariv", new String[]{});
+
+            assertEquals(size, before.size());
+            assertTrue(storage.getAll().stream().anyMatch(t -> t.taskid().equals(added)));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void eventsCarryASnapshotThatLaterCommentsDontChange() throws IOException {
+        TasksStorage storage = new TasksStorage(journalDir.toString());
+        try {
+            List<TaskEvent> events = new java.util.concurrent.CopyOnWriteArrayList<>();
+            storage.addListener(events::add);
+            UUID taskid = storage.add("Snapshot", "desc", LocalDate.now().plusDays(1), "Yariv", new String[]{});
+            Task task = storage.find(taskid).orElseThrow();
+            storage.addComment(task, "first", "Yariv", Optional.empty());
+            storage.addComment(task, "second", "Yariv", Optional.empty());
+
+            assertEquals(3, events.size());
+            assertEquals(0, events.get(0).task().comments().size());
+            assertEquals(1, events.get(1).task().comments().size());
+            assertEquals(2, events.get(2).task().comments().size());
+            assertTrue(events.get(1).revision() < events.get(2).revision());
+        } finally {
+            storage.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadPipelineTest {
+    private static byte[] image(String format, int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), format, out));
+        return out.toByteArray();
+    }
+
+    // feeds content in chunks of chunkSize, as the copy loop would
+    private static void run(UploadPipeline pipeline, byte[] content, int chunkSize) {
+        for (int offset = 0; offset < content.length; offset += chunkSize) {
+            pipeline.accept(ByteBuffer.wrap(content, offset, Math.min(chunkSize, content.length - offset)).slice());
+        }
+        pipeline.finish();
+    }
+
+    @Test
+    void everyStageSeesEveryByteWhateverTheChunking() throws Exception {
+        byte[] jpeg = image("jpeg", 300, 200);
+        for (int chunkSize : new int[]{1, 7, 8192}) {
+            List<UploadPipeline.MagicType> detected = new ArrayList<>();
+            UploadPipeline.SizeLimit sizeLimit = new UploadPipeline.SizeLimit(jpeg.length);
+            UploadPipeline.Digest digest = new UploadPipeline.Digest(MessageDigest.getInstance("SHA-256"));
+            UploadPipeline.ImageDimensions dimensions = new UploadPipeline.ImageDimensions(1_000_000);
+            run(new UploadPipeline(List.of(new UploadPipeline.MagicBytes(detected::add), sizeLimit, digest, dimensions)), jpeg, chunkSize);
+
+            assertEquals(List.of(UploadPipeline.MagicType.JPG), detected);
+            assertEquals(jpeg.length, sizeLimit.total());
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(jpeg), digest.digest());
+            assertEquals(new UploadPipeline.ImageDimensions.Dimensions(300, 200), dimensions.dimensions().orElseThrow());
+        }
+    }
+
+    @Test
+    void dimensionsAreReadFromPngAndGifHeaders() throws Exception {
+        for (String format : new String[]{"png", "gif"}) {
+            UploadPipeline.ImageDimensions dimensions = new UploadPipeline.ImageDimensions(1_000_000);
+            run(new UploadPipeline(List.of(dimensions)), image(format, 64, 48), 5);
+            assertEquals(new UploadPipeline.ImageDimensions.Dimensions(64, 48), dimensions.dimensions().orElseThrow(), format);
+        }
+    }
+
+    @Test
+    void oversizedContentAndDeclaredDimensionsAreRejected() throws Exception {
+        byte[] png = image("png", 64, 48);
+        UploadPipeline.RejectedException tooLarge = assertThrows(UploadPipeline.RejectedException.class,
+                () -> run(new UploadPipeline(List.of(new UploadPipeline.SizeLimit(png.length - 1))), png, 16));
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, tooLarge.status());
+
+        // a small file whose header claims 100000 x 100000 pixels
+        byte[] bomb = png.clone();
+        ByteBuffer.wrap(bomb, 16, 8).putInt(100_000).putInt(100_000);
+        assertThrows(UploadPipeline.RejectedException.class,
+                () -> run(new UploadPipeline(List.of(new UploadPipeline.ImageDimensions(64L * 1024 * 1024))), bomb, 3));
+    }
+
+    @Test
+    void emptyInputIsRejected() {
+        UploadPipeline pipeline = new UploadPipeline(List.of(new UploadPipeline.MagicBytes(type -> fail())));
+        UploadPipeline.RejectedException ex = assertThrows(UploadPipeline.RejectedException.class, pipeline::finish);
+        assertEquals(HttpStatus.BAD_REQUEST, ex.status());
+    }
+}
@@ -0,0 +1,79 @@
+package com.securefromscratch.busybee.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UrlDownloadCacheTest {
+    private static final byte[] PNG = {
+            (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A,
+            0, 0, 0, 0x0D, 'I', 'H', 'D', 'R', 1, 2, 3, 4
+    };
+
+    @TempDir
+    Path root;
+
+    private static byte[] png(int variant) {
+        byte[] content = PNG.clone();
+        content[content.length - 1] = (byte) variant;
+        return content;
+    }
+
+    @Test
+    void normalizedUrisShareAnEntry() {
+        assertEquals(UrlDownloadCache.key(URI.create("https://Example.com:443/a/../img.png")),
+                UrlDownloadCache.key(URI.create("https://example.com/img.png#top")));
+        assertNotEquals(UrlDownloadCache.key(URI.create("https://example.com/img.png")),
+                UrlDownloadCache.key(URI.create("https://example.com/img.png?v=2")));
+    }
+
+    @Test
+    void entriesOutliveTheirUploadAndAreEvictedLeastRecentlyUsedFirst() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        UrlDownloadCache cache = UrlDownloadCache.open(storage, 2L * PNG.length);
+        URI first = URI.create("https://example.com/1.png");
+        URI second = URI.create("https://example.com/2.png");
+        URI third = URI.create("https://example.com/3.png");
+
+        for (int i = 1; i <= 2; ++i) {
+            String stored = storage.storeUploadFromStream(new ByteArrayInputStream(png(i)), "download.png", "Dor", "image/png");
+            cache.put(URI.create("https://example.com/" + i + ".png"), stored, "\"v" + i + "\"", null, "image/png", "download.png", PNG.length);
+            storage.cleanupStoredUpload(stored);
+        }
+        UrlDownloadCache.Entry cachedFirst = cache.lookup(first).orElseThrow();
+        assertEquals("\"v1\"", cachedFirst.etag());
+        try (InputStream in = cache.openContent(cachedFirst)) {
+            assertArrayEquals(png(1), in.readAllBytes());
+        }
+
+        // first was used more recently than second, so second goes
+        String stored = storage.storeUploadFromStream(new ByteArrayInputStream(png(3)), "download.png", "Dor", "image/png");
+        cache.put(third, stored, null, "Wed, 21 Oct 2015 07:28:00 GMT", "image/png", "download.png", PNG.length);
+        assertTrue(cache.lookup(first).isPresent());
+        assertTrue(cache.lookup(second).isEmpty());
+        assertEquals(2L * PNG.length, cache.totalBytes());
+
+        UrlDownloadCache reopened = UrlDownloadCache.open(storage, 2L * PNG.length);
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", reopened.lookup(third).orElseThrow().lastModified());
+        assertTrue(reopened.lookup(first).isPresent());
+        assertTrue(reopened.lookup(second).isEmpty());
+    }
+
+    @Test
+    void responsesWithoutValidatorsAreNotCached() throws Exception {
+        FileStorage storage = new FileStorage(root);
+        UrlDownloadCache cache = UrlDownloadCache.open(storage, 1024);
+        String stored = storage.storeUploadFromStream(new ByteArrayInputStream(PNG), "download.png", "Dor", "image/png");
+        URI uri = URI.create("https://example.com/plain.png");
+        cache.put(uri, stored, null, null, "image/png", "download.png", PNG.length);
+        assertTrue(cache.lookup(uri).isEmpty());
+        assertTrue(Files.exists(storage.resolve(stored)));
+    }
+}